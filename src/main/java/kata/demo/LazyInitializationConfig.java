@@ -0,0 +1,28 @@
+package kata.demo;
+
+import kata.demo.batch.EndOfDayBatchService;
+import kata.demo.cluster.ClusterService;
+import kata.demo.diagnostics.ContentionMonitor;
+import kata.demo.document.StatementDocumentService;
+import kata.demo.replication.ReplicationFollower;
+import kata.demo.replication.ReplicationLeader;
+import kata.demo.service.DemoAccountLoader;
+import kata.demo.service.StatementSnapshots;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The beans created at startup even when the lazy initialization is enabled (prod profile):
+ * they listen to a port, schedule jobs, or have to observe the accounts from the start
+ */
+@Configuration
+public class LazyInitializationConfig {
+
+    @Bean
+    static LazyInitializationExcludeFilter eagerBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(DemoAccountLoader.class, ReplicationLeader.class, ReplicationFollower.class,
+                ClusterService.class, EndOfDayBatchService.class, StatementDocumentService.class, StatementSnapshots.class,
+                ContentionMonitor.class);
+    }
+}
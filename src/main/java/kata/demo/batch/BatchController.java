@@ -0,0 +1,32 @@
+package kata.demo.batch;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import kata.demo.dto.BatchReport;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+
+@RestController
+@RequestMapping("/batch")
+@RequiredArgsConstructor
+public class BatchController {
+
+    private final EndOfDayBatchService endOfDayBatchService;
+
+    @Operation(summary = "Run a job of the end of day batch, resuming the previous run for the same business date if any")
+    @ApiResponse(responseCode = "200", description = "Job done")
+    @ApiResponse(responseCode = "409", description = "The batch is already running")
+    @Parameter(name = "job", in = ParameterIn.PATH, description = "Job to run", example = "INTEREST")
+    @Parameter(name = "date", in = ParameterIn.QUERY, description = "Business date, yesterday by default", example = "2022-01-31")
+    @PostMapping("/{job}")
+    public ResponseEntity<BatchReport> runJob(@PathVariable BatchJob job,
+                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return ResponseEntity.ok(endOfDayBatchService.run(job, date != null ? date : LocalDate.now().minusDays(1)));
+    }
+}
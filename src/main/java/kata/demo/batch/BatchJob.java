@@ -0,0 +1,34 @@
+package kata.demo.batch;
+
+import kata.demo.dto.AccountType;
+import kata.demo.dto.StatementType;
+
+/**
+ * A job of the end of day batch
+ */
+public enum BatchJob {
+    /**
+     * daily interest paid on the savings accounts
+     */
+    INTEREST(AccountType.SAVINGS, StatementType.INTEREST),
+    /**
+     * monthly fee charged on the checking accounts
+     */
+    FEE(AccountType.CHECKING, StatementType.FEE);
+
+    private final AccountType accountType;
+    private final StatementType statementType;
+
+    BatchJob(AccountType accountType, StatementType statementType) {
+        this.accountType = accountType;
+        this.statementType = statementType;
+    }
+
+    public AccountType getAccountType() {
+        return accountType;
+    }
+
+    public StatementType getStatementType() {
+        return statementType;
+    }
+}
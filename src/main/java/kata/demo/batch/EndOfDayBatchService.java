@@ -0,0 +1,411 @@
+package kata.demo.batch;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import kata.demo.dto.Account;
+import kata.demo.dto.BatchReport;
+import kata.demo.dto.Statement;
+import kata.demo.exception.AccountInsufficientBalance;
+import kata.demo.exception.AccountNotFoundException;
+import kata.demo.exception.BatchAlreadyRunningException;
+import kata.demo.exception.ReadOnlyReplicaException;
+import kata.demo.service.AccountService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Applies the end of day jobs, interest and fees, to all the accounts.
+ * The accounts are split in partitions which are processed in parallel by a fork/join pool, each statement going through
+ * the normal {@link AccountService#update(UUID, Statement)} path. The accounts of a run and every partition done are recorded
+ * in checkpoint files, so that a run which crashed resumes where it stopped, and an account is never paid the interest twice
+ * for the same business date nor charged the fee twice in the same month.
+ */
+@Slf4j
+@Service
+public class EndOfDayBatchService {
+
+    private static final String HTTP_REQUESTS_METRIC = "http.server.requests";
+
+    private final AccountService accountService;
+    private final MeterRegistry meterRegistry;
+    private final BigDecimal interestAnnualRate;
+    private final BigDecimal checkingMonthlyFee;
+    private final int partitionSize;
+    private final int parallelism;
+    private final long pauseMs;
+    private final long baselineMs;
+    private final Path checkpointDir;
+    private final boolean follower;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public EndOfDayBatchService(AccountService accountService,
+                                MeterRegistry meterRegistry,
+                                @Value("${account.batch.interest-annual-rate:0.02}") BigDecimal interestAnnualRate,
+                                @Value("${account.batch.checking-monthly-fee:2.00}") BigDecimal checkingMonthlyFee,
+                                @Value("${account.batch.partition-size:1000}") int partitionSize,
+                                @Value("${account.batch.parallelism:0}") int parallelism,
+                                @Value("${account.batch.pause-ms:0}") long pauseMs,
+                                @Value("${account.batch.baseline-ms:1000}") long baselineMs,
+                                @Value("${account.batch.checkpoint-dir:${java.io.tmpdir}/account-batch}") String checkpointDir,
+                                @Value("${account.replication.role:}") String replicationRole) {
+        this.accountService = accountService;
+        this.meterRegistry = meterRegistry;
+        this.interestAnnualRate = interestAnnualRate;
+        this.checkingMonthlyFee = checkingMonthlyFee;
+        this.partitionSize = partitionSize;
+        // by default, half of the cores are left to the live traffic
+        this.parallelism = parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.pauseMs = pauseMs;
+        this.baselineMs = baselineMs;
+        this.checkpointDir = Paths.get(checkpointDir);
+        // the statements of a follower come from its leader only, a run of its own would make it diverge
+        this.follower = "follower".equals(replicationRole);
+    }
+
+    @Scheduled(cron = "${account.batch.interest-cron:-}")
+    void scheduledInterest() {
+        if (follower) {
+            return;
+        }
+        run(BatchJob.INTEREST, LocalDate.now().minusDays(1));
+    }
+
+    @Scheduled(cron = "${account.batch.fee-cron:-}")
+    void scheduledFee() {
+        if (follower) {
+            return;
+        }
+        run(BatchJob.FEE, LocalDate.now().minusDays(1));
+    }
+
+    /**
+     * Run a job on all the accounts, resuming a previous run of the same job for the same business date if any
+     *
+     * @param job          the job to run
+     * @param businessDate the day the statements are applied for
+     * @return the report of the run
+     */
+    public BatchReport run(BatchJob job, LocalDate businessDate) {
+        if (follower) {
+            throw new ReadOnlyReplicaException();
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new BatchAlreadyRunningException();
+        }
+        try {
+            return doRun(job, businessDate);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private BatchReport doRun(BatchJob job, LocalDate businessDate) {
+        // the latency of the live traffic is measured over a recent window rather than since the start of the application
+        double[] baselineStart = foregroundLatency();
+        sleep(baselineMs);
+        double[] foregroundBefore = foregroundLatency();
+        long start = System.nanoTime();
+
+        JobRun run;
+        int partitions;
+        int resumed;
+        String name = job + "-" + businessDate;
+        try (Checkpoint checkpoint = new Checkpoint(checkpointDir.resolve(name + ".ids"), checkpointDir.resolve(name + ".done"),
+                () -> accountService.findAll().stream()
+                        .filter(account -> account.getType() == job.getAccountType())
+                        .map(Account::getId)
+                        .sorted()
+                        .collect(Collectors.toList()))) {
+            // the accounts of the run are the ones recorded by its first attempt, so that a resumed run has the same partitions
+            List<UUID> accountIds = checkpoint.accountIds;
+            partitions = (accountIds.size() + partitionSize - 1) / partitionSize;
+            resumed = checkpoint.done.size();
+            run = new JobRun(job, businessDate, accountIds, checkpoint);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new PartitionTask(run, 0, partitions));
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        long durationNanos = System.nanoTime() - start;
+        double[] foregroundAfter = foregroundLatency();
+        BatchReport report = BatchReport.builder()
+                .job(job.name())
+                .businessDate(businessDate)
+                .partitions(partitions)
+                .resumedPartitions(resumed)
+                .accounts(run.accounts.get())
+                .appliedStatements(run.applied.get())
+                .failedAccounts(run.failed.get())
+                .durationMs(TimeUnit.NANOSECONDS.toMillis(durationNanos))
+                .accountsPerSecond(run.accounts.get() / Math.max(durationNanos / 1e9, 1e-9))
+                .foregroundRequestsBefore((long) (foregroundBefore[1] - baselineStart[1]))
+                .foregroundMeanLatencyMsBefore(meanMs(foregroundBefore[0] - baselineStart[0], foregroundBefore[1] - baselineStart[1]))
+                .foregroundRequestsDuring((long) (foregroundAfter[1] - foregroundBefore[1]))
+                .foregroundMeanLatencyMsDuring(meanMs(foregroundAfter[0] - foregroundBefore[0], foregroundAfter[1] - foregroundBefore[1]))
+                .build();
+        log.info("End of day batch done: {}", report);
+        return report;
+    }
+
+    private void processPartition(JobRun run, int partition) {
+        if (run.checkpoint.done.contains(partition)) {
+            return;
+        }
+        int end = Math.min(run.accountIds.size(), (partition + 1) * partitionSize);
+        for (int i = partition * partitionSize; i < end; i++) {
+            UUID accountId = run.accountIds.get(i);
+            try {
+                Statement statement = statementFor(run, accountService.findById(accountId));
+                if (statement != null) {
+                    accountService.update(accountId, statement);
+                    run.applied.incrementAndGet();
+                }
+                run.accounts.incrementAndGet();
+            } catch (AccountNotFoundException e) {
+                // removed or moved to another node since the run started
+            } catch (AccountInsufficientBalance e) {
+                run.failed.incrementAndGet();
+                log.warn("Could not apply {} to account {}: {}", run.job, accountId, e.getMessage());
+            }
+        }
+        run.checkpoint.markDone(partition);
+        // leave some room to the live traffic between two partitions
+        sleep(pauseMs);
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Statement statementFor(JobRun run, Account account) {
+        if (alreadyApplied(run, account)) {
+            return null;
+        }
+        BigDecimal amount;
+        switch (run.job) {
+            case INTEREST:
+                amount = account.getBalance()
+                        .multiply(interestAnnualRate)
+                        .divide(BigDecimal.valueOf(run.businessDate.lengthOfYear()), 2, RoundingMode.HALF_EVEN);
+                break;
+            case FEE:
+                // never make the balance negative
+                amount = checkingMonthlyFee.min(account.getBalance());
+                break;
+            default:
+                throw new IllegalStateException("Batch job is not recognized: " + run.job);
+        }
+        if (amount.signum() <= 0) {
+            return null;
+        }
+        return Statement.builder()
+                .date(run.statementDate)
+                .type(run.job.getStatementType())
+                .amount(amount)
+                .build();
+    }
+
+    private boolean alreadyApplied(JobRun run, Account account) {
+        // a statement can be backdated, so all of them are scanned rather than only the last ones
+        for (Statement statement : account.getStatements()) {
+            if (statement.getType() == run.job.getStatementType() && statement.getDate() != null && isSamePeriod(run, statement.getDate())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSamePeriod(JobRun run, LocalDateTime date) {
+        switch (run.job) {
+            case INTEREST:
+                return run.statementDate.equals(date);
+            case FEE:
+                // the fee is monthly, whatever the business date it was charged for
+                return YearMonth.from(run.businessDate).equals(YearMonth.from(date));
+            default:
+                throw new IllegalStateException("Batch job is not recognized: " + run.job);
+        }
+    }
+
+    /**
+     * @return the total time in ms and the count of the HTTP requests served so far, to be compared with a later call
+     */
+    private double[] foregroundLatency() {
+        double totalMs = 0;
+        long count = 0;
+        for (Timer timer : meterRegistry.find(HTTP_REQUESTS_METRIC).timers()) {
+            totalMs += timer.totalTime(TimeUnit.MILLISECONDS);
+            count += timer.count();
+        }
+        return new double[]{totalMs, count};
+    }
+
+    private static double meanMs(double totalMs, double count) {
+        return count == 0 ? 0 : totalMs / count;
+    }
+
+    private final class PartitionTask extends RecursiveAction {
+        private final JobRun run;
+        private final int from;
+        private final int to;
+
+        private PartitionTask(JobRun run, int from, int to) {
+            this.run = run;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) {
+                    processPartition(run, from);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new PartitionTask(run, from, middle), new PartitionTask(run, middle, to));
+        }
+    }
+
+    private static final class JobRun {
+        private final BatchJob job;
+        private final LocalDate businessDate;
+        private final LocalDateTime statementDate;
+        private final List<UUID> accountIds;
+        private final Checkpoint checkpoint;
+        private final AtomicLong accounts = new AtomicLong();
+        private final AtomicLong applied = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+
+        private JobRun(BatchJob job, LocalDate businessDate, List<UUID> accountIds, Checkpoint checkpoint) {
+            this.job = job;
+            this.businessDate = businessDate;
+            this.statementDate = businessDate.atTime(LocalTime.of(23, 59, 59));
+            this.accountIds = accountIds;
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    /**
+     * The accounts of a job for a business date, in a file written once by the first attempt of the run, and the partitions done,
+     * one per line of a file which is only appended to
+     */
+    private static final class Checkpoint implements AutoCloseable {
+        private final List<UUID> accountIds;
+        private final Set<Integer> done = ConcurrentHashMap.newKeySet();
+        private final FileChannel channel;
+
+        private Checkpoint(Path idsFile, Path doneFile, Supplier<List<UUID>> currentIds) {
+            try {
+                Files.createDirectories(doneFile.getParent());
+                if (Files.exists(idsFile)) {
+                    accountIds = Files.readAllLines(idsFile).stream()
+                            .filter(line -> !line.isBlank())
+                            .map(UUID::fromString)
+                            .collect(Collectors.toList());
+                    if (Files.exists(doneFile)) {
+                        Files.readAllLines(doneFile).stream()
+                                .filter(line -> !line.isBlank())
+                                .map(Integer::valueOf)
+                                .forEach(done::add);
+                    }
+                } else {
+                    accountIds = currentIds.get();
+                    // the partitions done without the accounts they were made of can't be trusted
+                    Files.deleteIfExists(doneFile);
+                    writeAtomically(idsFile, accountIds);
+                }
+                channel = FileChannel.open(doneFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the batch checkpoint " + doneFile, e);
+            }
+        }
+
+        private static void writeAtomically(Path file, List<UUID> ids) throws IOException {
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                for (UUID id : ids) {
+                    if (buffer.remaining() < 64) {
+                        writeFully(channel, buffer);
+                    }
+                    buffer.put((id + "\n").getBytes(StandardCharsets.US_ASCII));
+                }
+                writeFully(channel, buffer);
+                channel.force(false);
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void markDone(int partition) {
+            done.add(partition);
+            try {
+                synchronized (channel) {
+                    channel.write(ByteBuffer.wrap((partition + "\n").getBytes(StandardCharsets.UTF_8)));
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the batch checkpoint", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close the batch checkpoint", e);
+            }
+        }
+    }
+}
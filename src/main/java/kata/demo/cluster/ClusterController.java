@@ -0,0 +1,50 @@
+package kata.demo.cluster;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import kata.demo.dto.Rebalancing;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.Set;
+
+@RestController
+@RequestMapping("/cluster")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "account.cluster.nodes")
+public class ClusterController {
+
+    private final ClusterService clusterService;
+
+    @Operation(summary = "List the nodes of the cluster")
+    @GetMapping("/nodes")
+    public ResponseEntity<Set<String>> getNodes() {
+        return ResponseEntity.ok(clusterService.getNodes());
+    }
+
+    @Operation(summary = "Add a node to the cluster, the accounts it now owns are moved to it")
+    @Parameter(name = "url", in = ParameterIn.QUERY, description = "Base URL of the node", example = "http://localhost:8083")
+    @PostMapping("/nodes")
+    public ResponseEntity<Rebalancing> addNode(@RequestParam String url,
+                                               @RequestHeader(name = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy,
+                                               HttpServletRequest request) {
+        // a node added through another node is already known by all the nodes
+        int moved = clusterService.addNode(url, !clusterService.isForwardedByNode(forwardedBy, request.getRemoteAddr()));
+        return ResponseEntity.ok(Rebalancing.builder()
+                .nodes(clusterService.getNodes())
+                .movedAccounts(moved)
+                .build());
+    }
+
+    @Operation(summary = "Save the accounts moved from another node")
+    @PostMapping("/accounts")
+    public ResponseEntity<Void> importAccounts(@RequestBody byte[] accounts) throws IOException {
+        clusterService.importAccounts(accounts);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,201 @@
+package kata.demo.cluster;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Routes the requests on an account to the node owning it, either by forwarding the request or by redirecting the client.
+ * While an account is moved to another node, it's served by the node it's moved from until the move is confirmed.
+ * A request already forwarded by another node is handled locally, so that a request is never forwarded twice, unless it's
+ * on an account which was not received yet from its previous owner.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "account.cluster.nodes")
+public class ClusterRoutingFilter extends OncePerRequestFilter {
+
+    private static final List<String> FORWARDED_RESPONSE_HEADERS = List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.LOCATION,
+            HttpHeaders.RETRY_AFTER, HttpHeaders.ALLOW);
+
+    private final ClusterService clusterService;
+    private final ObjectMapper objectMapper;
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    @Value("${account.cluster.routing:forward}")
+    private String routing;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !urlPathHelper.getPathWithinApplication(request).startsWith("/account");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        String forwardedBy = request.getHeader(ClusterService.FORWARDED_HEADER);
+        if (!clusterService.isForwardedByNode(forwardedBy, request.getRemoteAddr())) {
+            forwardedBy = null;
+        }
+        String path = urlPathHelper.getPathWithinApplication(request);
+        String[] segments = path.split("/");
+        byte[] body = new byte[0];
+        UUID accountId = null;
+        boolean existing = segments.length > 2;
+        if (existing) {
+            accountId = parseId(segments[2]);
+        } else if (HttpMethod.POST.matches(request.getMethod())) {
+            // an account created with a given id must be created on the node owning this id
+            body = StreamUtils.copyToByteArray(request.getInputStream());
+            request = new CachedBodyRequest(request, body);
+            accountId = idOf(body);
+        }
+        if (accountId == null || clusterService.holds(accountId)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        String node = clusterService.ownerOf(accountId);
+        // an account moving to this node is still on its previous owner until it's received
+        boolean moving = existing && node.equals(clusterService.getSelf());
+        if (moving) {
+            node = clusterService.previousOwnerOf(accountId);
+        }
+        // a forwarded request is handled locally, unless it's on an account which is still on the node it was forwarded to
+        if (node == null || node.equals(clusterService.getSelf()) || forwardedBy != null && (!moving || node.equals(forwardedBy))) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        String pathAndQuery = path + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        // a stream can't be forwarded, the client has to connect to the owner
+        if ("redirect".equals(routing) || path.endsWith("/stream")) {
+            // the client is only sent to the previous owner while it holds the account, otherwise both nodes would send it to each other
+            if (moving && !clusterService.holds(node, accountId)) {
+                filterChain.doFilter(request, response);
+                return;
+            }
+            response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+            response.setHeader(HttpHeaders.LOCATION, node + pathAndQuery);
+            return;
+        }
+        if (body.length == 0) {
+            body = StreamUtils.copyToByteArray(request.getInputStream());
+        }
+        try {
+            HttpResponse<byte[]> forwarded = clusterService.forward(node, pathAndQuery, request.getMethod(), request.getContentType(), body);
+            // the previous owner has just moved the account here
+            if (moving && forwarded.statusCode() == HttpStatus.NOT_FOUND.value() && clusterService.holds(accountId)) {
+                filterChain.doFilter(new CachedBodyRequest(request, body), response);
+                return;
+            }
+            response.setStatus(forwarded.statusCode());
+            for (String header : FORWARDED_RESPONSE_HEADERS) {
+                forwarded.headers().firstValue(header).ifPresent(value -> response.setHeader(header, value));
+            }
+            response.getOutputStream().write(forwarded.body());
+        } catch (IOException e) {
+            response.sendError(HttpStatus.BAD_GATEWAY.value(), "Node " + node + " holding account " + accountId + " is not reachable");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+        }
+    }
+
+    private UUID idOf(byte[] body) {
+        try {
+            JsonNode id = objectMapper.readTree(body).get("id");
+            return id == null || id.isNull() ? null : parseId(id.asText());
+        } catch (IOException e) {
+            // let the controller answer to an invalid body
+            return null;
+        }
+    }
+
+    private static UUID parseId(String id) {
+        try {
+            return UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        private CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream input = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return input.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    // the whole body is already read, so it's available right away
+                    try {
+                        if (!isFinished()) {
+                            readListener.onDataAvailable();
+                        }
+                        if (isFinished()) {
+                            readListener.onAllDataRead();
+                        }
+                    } catch (IOException e) {
+                        readListener.onError(e);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return input.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return input.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+        }
+    }
+}
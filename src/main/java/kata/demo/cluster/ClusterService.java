@@ -0,0 +1,330 @@
+package kata.demo.cluster;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kata.demo.dto.Account;
+import kata.demo.dto.InternalObjectMapper;
+import kata.demo.exception.AccountNotFoundException;
+import kata.demo.service.AccountIdGenerator;
+import kata.demo.service.AccountService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Partitions the accounts over the nodes of the cluster with a consistent hash ring of their ids.
+ * Every node accepts any request and routes it to the owner of the account (see {@link ClusterRoutingFilter}), and the new accounts
+ * always get an id owned by the node creating them.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "account.cluster.nodes")
+public class ClusterService {
+
+    static final String FORWARDED_HEADER = "X-Cluster-Forwarded-By";
+    private static final long TRANSFER_BACKOFF_MS = 200;
+
+    private final AccountService accountService;
+    private final ObjectMapper objectMapper;
+    private final String self;
+    private final int virtualNodes;
+    private final Duration forwardTimeout;
+    private final int transferAttempts;
+    private final HttpClient httpClient;
+
+    private volatile ConsistentHashRing ring;
+    // the ring as it was before this node joined, to find the node still holding an account moving to this node
+    private volatile ConsistentHashRing ringWithoutSelf;
+
+    public ClusterService(AccountService accountService,
+                          ObjectMapper objectMapper,
+                          @Value("${account.cluster.nodes}") List<String> nodes,
+                          @Value("${account.cluster.self}") String self,
+                          @Value("${account.cluster.virtual-nodes:128}") int virtualNodes,
+                          @Value("${account.cluster.forward-timeout-ms:5000}") long forwardTimeoutMs,
+                          @Value("${account.cluster.transfer-attempts:3}") int transferAttempts) {
+        this.accountService = accountService;
+        this.objectMapper = InternalObjectMapper.of(objectMapper);
+        this.self = self;
+        this.virtualNodes = virtualNodes;
+        this.forwardTimeout = Duration.ofMillis(forwardTimeoutMs);
+        this.transferAttempts = Math.max(1, transferAttempts);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(forwardTimeout)
+                .build();
+        setRing(new ConsistentHashRing(nodes, virtualNodes).withNode(self));
+    }
+
+    @PostConstruct
+    private void init() {
+        // the accounts loaded at startup are only kept by their owner
+        accountService.findAll().stream()
+                .map(Account::getId)
+                .filter(id -> !isLocal(id))
+                .collect(Collectors.toList())
+                .forEach(accountService::remove);
+
+        AccountIdGenerator generator = accountService.getIdGenerator();
+        accountService.setIdGenerator(() -> {
+            UUID id;
+            do {
+                id = generator.nextId();
+            } while (!isLocal(id));
+            return id;
+        });
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public Set<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    /**
+     * @param accountId the account id
+     * @return the base URL of the node owning the account
+     */
+    public String ownerOf(UUID accountId) {
+        return ring.ownerOf(accountId);
+    }
+
+    public boolean isLocal(UUID accountId) {
+        return self.equals(ring.ownerOf(accountId));
+    }
+
+    /**
+     * An account stays on its previous node, which keeps serving it, until its new owner has confirmed it's saved
+     *
+     * @param accountId the account id
+     * @return true if the account is on this node, whether it owns it or is moving it to its owner
+     */
+    public boolean holds(UUID accountId) {
+        return accountService.exists(accountId);
+    }
+
+    /**
+     * @param accountId an account owned by this node
+     * @return the node which owned the account before this node joined the cluster, and holds it until it's moved to this node,
+     * or null if this node is the only node
+     */
+    public String previousOwnerOf(UUID accountId) {
+        ConsistentHashRing previous = ringWithoutSelf;
+        return previous == null ? null : previous.ownerOf(accountId);
+    }
+
+    /**
+     * @param node      base URL of the node
+     * @param accountId the account id
+     * @return true if the node holds the account
+     */
+    public boolean holds(String node, UUID accountId) {
+        try {
+            return forward(node, "/account/" + accountId, "HEAD", null, new byte[0]).statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * A forwarded request is trusted only if the node it claims to come from is a node of the cluster, and it comes from the host
+     * of this node, so that a client can't bypass the routing with the forwarded header
+     *
+     * @param forwardedBy   the node in the forwarded header, if any
+     * @param remoteAddress the address the request comes from
+     * @return true if the request is forwarded by a node of the cluster
+     */
+    public boolean isForwardedByNode(String forwardedBy, String remoteAddress) {
+        if (forwardedBy == null || !ring.getNodes().contains(forwardedBy)) {
+            return false;
+        }
+        try {
+            InetAddress remote = InetAddress.getByName(remoteAddress);
+            for (InetAddress address : InetAddress.getAllByName(URI.create(forwardedBy).getHost())) {
+                if (address.equals(remote)) {
+                    return true;
+                }
+            }
+        } catch (UnknownHostException | IllegalArgumentException e) {
+            log.warn("Could not check that the request from {} is forwarded by {}", remoteAddress, forwardedBy, e);
+        }
+        return false;
+    }
+
+    /**
+     * Add a node to the cluster, and move to it the local accounts it now owns.
+     * If they could not be moved, the node is not added, so that the local accounts stay served by this node.
+     *
+     * @param node      base URL of the node
+     * @param broadcast true to let the other nodes know about the new node
+     * @return the number of accounts moved to the new node
+     * @throws IllegalStateException if the accounts could not be moved to the new node
+     */
+    public synchronized int addNode(String node, boolean broadcast) {
+        ConsistentHashRing previous = ring;
+        // the accounts being moved are still served by this node until the new node has saved them, see holds(UUID)
+        setRing(previous.withNode(node));
+        int moved;
+        try {
+            moved = rebalance();
+        } catch (IllegalStateException e) {
+            setRing(previous);
+            throw e;
+        }
+        if (broadcast) {
+            for (String other : ring.getNodes()) {
+                if (!other.equals(self) && !other.equals(node)) {
+                    try {
+                        post(other, "/cluster/nodes?url=" + URLEncoder.encode(node, StandardCharsets.UTF_8), null, new byte[0]);
+                    } catch (IllegalStateException e) {
+                        log.warn("Could not tell {} about the new node {}", other, node, e);
+                    }
+                }
+            }
+        }
+        return moved;
+    }
+
+    private void setRing(ConsistentHashRing ring) {
+        this.ringWithoutSelf = ring.withoutNode(self);
+        this.ring = ring;
+    }
+
+    /**
+     * Move the local accounts which are not owned by this node anymore to their owner.
+     * An account is only removed once its owner has confirmed it's saved, and only if it was not updated meanwhile:
+     * an account updated while it was sent is sent again.
+     *
+     * @return the number of moved accounts
+     * @throws IllegalStateException if some accounts could not be moved, they are still on this node
+     */
+    public int rebalance() {
+        Map<String, List<Account>> moving = new HashMap<>();
+        for (Account account : accountService.findAll()) {
+            String owner = ownerOf(account.getId());
+            if (!owner.equals(self)) {
+                moving.computeIfAbsent(owner, k -> new ArrayList<>()).add(account);
+            }
+        }
+        int moved = 0;
+        for (Map.Entry<String, List<Account>> accounts : moving.entrySet()) {
+            moved += transfer(accounts.getKey(), accounts.getValue());
+        }
+        log.info("{} accounts moved to other nodes", moved);
+        return moved;
+    }
+
+    private int transfer(String owner, List<Account> accounts) {
+        int moved = 0;
+        List<Account> sending = accounts;
+        for (int attempt = 1; !sending.isEmpty(); attempt++) {
+            try {
+                post(owner, "/cluster/accounts", MediaType.APPLICATION_JSON_VALUE, objectMapper.writeValueAsBytes(sending));
+            } catch (IOException | IllegalStateException e) {
+                if (attempt >= transferAttempts) {
+                    throw new IllegalStateException("Could not move " + sending.size() + " accounts to " + owner, e);
+                }
+                log.warn("Could not move {} accounts to {}, attempt {} of {}", sending.size(), owner, attempt, transferAttempts, e);
+                pause(attempt);
+                continue;
+            }
+            List<Account> updated = new ArrayList<>();
+            for (Account account : sending) {
+                if (accountService.remove(account)) {
+                    moved++;
+                } else {
+                    try {
+                        updated.add(accountService.findById(account.getId()));
+                    } catch (AccountNotFoundException e) {
+                        // removed meanwhile, nothing left to move
+                    }
+                }
+            }
+            sending = updated;
+        }
+        return moved;
+    }
+
+    private void pause(int attempt) {
+        try {
+            Thread.sleep(TRANSFER_BACKOFF_MS * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while moving accounts", e);
+        }
+    }
+
+    /**
+     * Save the accounts moved from another node
+     *
+     * @param body the accounts, serialized by the other node
+     * @return the number of saved accounts
+     */
+    public int importAccounts(byte[] body) throws IOException {
+        List<Account> accounts = objectMapper.readValue(body, new TypeReference<List<Account>>() {
+        });
+        accounts.forEach(accountService::save);
+        return accounts.size();
+    }
+
+    /**
+     * Forward a request to another node
+     *
+     * @param node        base URL of the node
+     * @param pathAndQuery path and query of the request
+     * @param method      HTTP method of the request
+     * @param contentType content type of the body, if any
+     * @param body        body of the request
+     * @return the response of the other node
+     */
+    public HttpResponse<byte[]> forward(String node, String pathAndQuery, String method, String contentType, byte[] body) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(node + pathAndQuery))
+                .timeout(forwardTimeout)
+                .header(FORWARDED_HEADER, self)
+                .method(method, body.length == 0 ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body));
+        if (contentType != null) {
+            request.header(HttpHeaders.CONTENT_TYPE, contentType);
+        }
+        return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private void post(String node, String pathAndQuery, String contentType, byte[] body) {
+        try {
+            HttpResponse<byte[]> response = forward(node, pathAndQuery, "POST", contentType, body);
+            if (response.statusCode() >= 300) {
+                throw new IllegalStateException("Node " + node + " answered " + response.statusCode() + " to " + pathAndQuery);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Node " + node + " is not reachable", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while calling node " + node, e);
+        }
+    }
+}
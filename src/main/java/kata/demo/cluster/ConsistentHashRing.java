@@ -0,0 +1,98 @@
+package kata.demo.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * An immutable consistent hash ring of the nodes of the cluster. Each node is placed at several points of the ring (virtual nodes)
+ * so that the accounts are evenly spread, and adding a node only moves the accounts which now belong to it.
+ */
+public final class ConsistentHashRing {
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    private final Set<String> nodes;
+    private final int virtualNodes;
+
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A cluster needs at least one node");
+        }
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+        this.virtualNodes = virtualNodes;
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * @param node the node to add
+     * @return a new ring with the node
+     */
+    public ConsistentHashRing withNode(String node) {
+        Set<String> withNode = new TreeSet<>(nodes);
+        withNode.add(node);
+        return new ConsistentHashRing(withNode, virtualNodes);
+    }
+
+    /**
+     * @param node the node to remove
+     * @return a new ring without the node, or null if it was the only node
+     */
+    public ConsistentHashRing withoutNode(String node) {
+        Set<String> withoutNode = new TreeSet<>(nodes);
+        withoutNode.remove(node);
+        return withoutNode.isEmpty() ? null : new ConsistentHashRing(withoutNode, virtualNodes);
+    }
+
+    /**
+     * @param accountId the account id
+     * @return the node owning the account
+     */
+    public String ownerOf(UUID accountId) {
+        Map.Entry<Long, String> owner = ring.ceilingEntry(hash(accountId));
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    private static long hash(UUID id) {
+        // the time ordered bits of an id are mixed with its random bits, so that consecutive ids are spread over the ring
+        return mix(id.getMostSignificantBits() ^ mix(id.getLeastSignificantBits()));
+    }
+
+    private static long hash(String virtualNode) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(virtualNode.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // finalizer of MurmurHash3
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -1,8 +1,11 @@
 package kata.demo.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -10,22 +13,34 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import kata.demo.dto.Account;
 import kata.demo.dto.Statement;
 import kata.demo.dto.StatementPrinting;
+import kata.demo.dto.StatementType;
 import kata.demo.service.AccountService;
+import kata.demo.service.AdmissionService;
+import kata.demo.service.StatementPageCache;
+import kata.demo.service.StatementPrinter;
+import kata.demo.service.StatementSink;
+import kata.demo.service.StatementSnapshots;
+import kata.demo.service.StatementStreamService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.time.LocalDateTime;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 @RestController
@@ -34,6 +49,19 @@ import java.util.UUID;
 public class AccountController {
 
     private final AccountService accountService;
+    private final AdmissionService admissionService;
+    private final StatementPageCache statementPageCache;
+    private final StatementPrinter statementPrinter;
+    private final StatementStreamService statementStreamService;
+    private final StatementSnapshots statementSnapshots;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+
+    @Value("${account.statements.stream.timeout-ms:1800000}")
+    private long streamTimeoutMs;
+
+    @Value("${account.creation.max-batch-size:1000}")
+    private int maxBatchSize;
 
     @Operation(summary = "Create an account")
     @ApiResponse(responseCode = "201", description = "Account created")
@@ -60,6 +88,49 @@ public class AccountController {
                 .body(saved);
     }
 
+    @Operation(summary = "Create several accounts at once")
+    @ApiResponse(responseCode = "201", description = "Accounts created, in the same order")
+    @ApiResponse(responseCode = "400", description = "An account is invalid or already has an id, or there are too many accounts")
+    @PostMapping("/batch")
+    public ResponseEntity<List<Account>> createAccounts(
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Accounts to be created",
+                    content = @Content(array = @ArraySchema(schema = @Schema(implementation = Account.class)),
+                            examples = {@ExampleObject(name = "Two accounts to be created",
+                                    value = "[\n" +
+                                            "  {\n" +
+                                            "    \"type\": \"CHECKING\",\n" +
+                                            "    \"balance\": 0,\n" +
+                                            "    \"statements\": []\n" +
+                                            "  },\n" +
+                                            "  {\n" +
+                                            "    \"type\": \"SAVINGS\",\n" +
+                                            "    \"balance\": 0,\n" +
+                                            "    \"statements\": []\n" +
+                                            "  }\n" +
+                                            "]")}), required = true)
+            @RequestBody
+                    List<Account> accounts) {
+        if (accounts.size() > maxBatchSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + maxBatchSize + " accounts can be created at once");
+        }
+        for (int i = 0; i < accounts.size(); i++) {
+            Account account = accounts.get(i);
+            // the ids are generated, so that the accounts are always new ones owned by this node
+            if (account == null || account.getId() != null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Account " + i + " must be given without id");
+            }
+            Set<ConstraintViolation<Account>> violations = validator.validate(account);
+            if (!violations.isEmpty()) {
+                ConstraintViolation<Account> violation = violations.iterator().next();
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Account " + i + " is invalid: " + violation.getPropertyPath() + " " + violation.getMessage());
+            }
+        }
+        List<Account> saved = accountService.saveAll(accounts);
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(saved);
+    }
+
     @Operation(summary = "Get an account")
     @ApiResponse(responseCode = "200", description = "Account found",
             content = {@Content(mediaType = "application/json")})
@@ -72,6 +143,7 @@ public class AccountController {
     @Operation(summary = "Make a statement to the account")
     @ApiResponse(responseCode = "200", description = "Operation successful",
             content = {@Content(mediaType = "application/json")})
+    @ApiResponse(responseCode = "429", description = "Too many operations in progress, retry after the delay given in the Retry-After header")
     @Parameter(name = "id", in = ParameterIn.PATH, description = "Account Id", example = "3fa85f64-5717-4562-b3fc-2c963f66afa6")
     @PostMapping("/{id}/statements")
     public ResponseEntity<Account> makeStatement(
@@ -91,8 +163,12 @@ public class AccountController {
             @PathVariable UUID id
 //                                           @RequestHeader("If-Match") Integer ifMatch
     ) {
+        // interest and fees are only applied by the end of day batch
+        if (statement.getType() != StatementType.DEPOSIT && statement.getType() != StatementType.WITHDRAWAL) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Only deposits and withdrawals can be made on an account");
+        }
         statement.setDate(LocalDateTime.now());
-        Account saved = accountService.update(id, statement);
+        Account saved = admissionService.admit(id, () -> accountService.update(id, statement));
         URI location = ServletUriComponentsBuilder
                 .fromCurrentRequest()
                 .build()
@@ -103,7 +179,7 @@ public class AccountController {
 
     @Operation(summary = "Print statements of the account")
     @ApiResponse(responseCode = "200", description = "Operation successful",
-            content = {@Content(mediaType = "application/json")})
+            content = {@Content(mediaType = "application/json", schema = @Schema(implementation = StatementPrinting.class))})
     @Parameter(name = "id", in = ParameterIn.PATH, description = "Account Id", example = "3fa85f64-5717-4562-b3fc-2c963f66afa6")
     @Parameter(name = "pageable", in = ParameterIn.QUERY, description = "Request to retrieve the statements page by page",
             examples = {@ExampleObject(name = "Display 10 statements at once, ordered by date ascending, go to the first page",
@@ -122,42 +198,82 @@ public class AccountController {
                                     "    \"date,desc\"\n" +
                                     "  ]\n" +
                                     "}")})
+    @Parameter(name = "snapshot", in = ParameterIn.QUERY, description = "Snapshot returned by the first page, to print the other pages from the same version of the account")
+    @ApiResponse(responseCode = "410", description = "The snapshot has expired, print again from the first page")
     @GetMapping("/{id}/statements")
-    public ResponseEntity<StatementPrinting> printStatements(
-            @PathVariable UUID id, Pageable pageable
+    public ResponseEntity<byte[]> printStatements(
+            @PathVariable UUID id, Pageable pageable,
+            @RequestParam(required = false) Long snapshot
 //                                           @RequestHeader("If-Match") Integer ifMatch
     ) {
-        // get existing account
-        Account existingAccount = accountService.findById(id);
-        StatementPrinting print = createStatementPrinting(pageable, existingAccount);
-        return ResponseEntity.ok(print);
+        Account existingAccount;
+        if (snapshot == null) {
+            // get existing account, and retain its current version only if there are next pages to print from it
+            existingAccount = accountService.findById(id);
+            if (pageable.isPaged() && pageable.getOffset() + pageable.getPageSize() < existingAccount.getStatements().size()) {
+                statementSnapshots.register(existingAccount);
+            }
+        } else {
+            existingAccount = statementSnapshots.get(id, snapshot);
+        }
+        // the same page of the same account version is always rendered the same, so it's served already serialized from the cache
+        byte[] print = statementPageCache.get(existingAccount, pageable,
+                () -> writeAsBytes(statementPrinter.print(existingAccount, pageable)));
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(print);
     }
 
-    private StatementPrinting createStatementPrinting(Pageable pageable, Account existingAccount) {
-        // FIXME this kind of pagination should be done with Spring REST repository
-        List<Statement> statements = existingAccount.getStatements();
-
-        Optional<Sort.Order> order = pageable.getSort().stream().findFirst();
-        if (order.isPresent()) {
-            if (order.get().getProperty().equals("date")) {
-                if (order.get().getDirection() == Sort.Direction.ASC) {
-                    statements.sort(Comparator.comparing(Statement::getDate));
-                } else {
-                    statements.sort((o1, o2) -> o2.getDate().compareTo(o1.getDate()));
+    @Operation(summary = "Stream the statements of the account as they are made (server-sent events)")
+    @ApiResponse(responseCode = "200", description = "Stream of `statement` events, whose id is the version of the account. " +
+            "An `overflow` event closes the stream of a client too late, which has to reconnect with the Last-Event-ID header to resume",
+            content = {@Content(mediaType = "text/event-stream")})
+    @Parameter(name = "id", in = ParameterIn.PATH, description = "Account Id", example = "3fa85f64-5717-4562-b3fc-2c963f66afa6")
+    @GetMapping(path = "/{id}/statements/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamStatements(@PathVariable UUID id,
+                                       @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        Runnable cancel = statementStreamService.subscribe(id, lastEventId, new StatementSink() {
+            @Override
+            public void send(String eventId, Statement statement) throws IOException {
+                try {
+                    emitter.send(SseEmitter.event()
+                            .id(eventId)
+                            .name("statement")
+                            .data(statement, MediaType.APPLICATION_JSON));
+                } catch (IllegalStateException e) {
+                    // the emitter is already completed
+                    throw new IOException(e);
                 }
             }
+
+            @Override
+            public void overflow() {
+                try {
+                    emitter.send(SseEmitter.event().name("overflow").data(""));
+                } catch (IOException | IllegalStateException e) {
+                    // the client is gone anyway
+                }
+                emitter.complete();
+            }
+
+            @Override
+            public void abort() {
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(cancel);
+        emitter.onTimeout(cancel);
+        emitter.onError(e -> cancel.run());
+        return emitter;
+    }
+
+    private byte[] writeAsBytes(StatementPrinting print) {
+        try {
+            return objectMapper.writeValueAsBytes(print);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
         }
-        int start = (int) pageable.getOffset();
-        int end = Math.min((start + pageable.getPageSize()), statements.size());
-        Page<Statement> page
-                = new PageImpl<>(statements.subList(start, end), pageable, statements.size());
-        return StatementPrinting.builder()
-                .accountBalance(existingAccount.getBalance())
-                .statements(page.getContent())
-                .currentPage(page.getNumber())
-                .totalStatements(page.getTotalElements())
-                .totalPages(page.getTotalPages())
-                .build();
     }
 
 }
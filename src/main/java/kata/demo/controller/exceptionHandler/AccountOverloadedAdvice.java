@@ -0,0 +1,18 @@
+package kata.demo.controller.exceptionHandler;
+
+import kata.demo.exception.AccountOverloadedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+@ControllerAdvice
+public class AccountOverloadedAdvice {
+    @ExceptionHandler(AccountOverloadedException.class)
+    ResponseEntity<String> accountOverloadedHandler(AccountOverloadedException ex) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(ex.getMessage());
+    }
+}
@@ -0,0 +1,18 @@
+package kata.demo.controller.exceptionHandler;
+
+import kata.demo.exception.BatchAlreadyRunningException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class BatchAlreadyRunningAdvice {
+    @ResponseBody
+    @ExceptionHandler(BatchAlreadyRunningException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    String batchAlreadyRunningHandler(BatchAlreadyRunningException ex) {
+        return ex.getMessage();
+    }
+}
@@ -0,0 +1,18 @@
+package kata.demo.controller.exceptionHandler;
+
+import kata.demo.exception.DocumentsAlreadyRunningException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class DocumentsAlreadyRunningAdvice {
+    @ResponseBody
+    @ExceptionHandler(DocumentsAlreadyRunningException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    String documentsAlreadyRunningHandler(DocumentsAlreadyRunningException ex) {
+        return ex.getMessage();
+    }
+}
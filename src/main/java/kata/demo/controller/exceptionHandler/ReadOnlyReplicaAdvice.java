@@ -0,0 +1,18 @@
+package kata.demo.controller.exceptionHandler;
+
+import kata.demo.exception.ReadOnlyReplicaException;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+@ControllerAdvice
+public class ReadOnlyReplicaAdvice {
+    @ExceptionHandler(ReadOnlyReplicaException.class)
+    ResponseEntity<String> readOnlyReplicaHandler(ReadOnlyReplicaException ex) {
+        return ResponseEntity.status(HttpStatus.METHOD_NOT_ALLOWED)
+                .allow(HttpMethod.GET, HttpMethod.HEAD)
+                .body(ex.getMessage());
+    }
+}
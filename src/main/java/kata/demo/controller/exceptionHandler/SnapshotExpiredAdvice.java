@@ -0,0 +1,18 @@
+package kata.demo.controller.exceptionHandler;
+
+import kata.demo.exception.SnapshotExpiredException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class SnapshotExpiredAdvice {
+    @ResponseBody
+    @ExceptionHandler(SnapshotExpiredException.class)
+    @ResponseStatus(HttpStatus.GONE)
+    String snapshotExpiredHandler(SnapshotExpiredException ex) {
+        return ex.getMessage();
+    }
+}
@@ -0,0 +1,25 @@
+package kata.demo.diagnostics;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import kata.demo.dto.ContentionReport;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/admin")
+@RequiredArgsConstructor
+public class ContentionController {
+
+    private final ContentionMonitor contentionMonitor;
+
+    @Operation(summary = "Get the hot accounts and the time spent waiting for their lock, estimated from a sample of the updates")
+    @ApiResponse(responseCode = "200", description = "Contention over the last complete time window")
+    @GetMapping("/contention")
+    public ResponseEntity<ContentionReport> contention() {
+        return ResponseEntity.ok(contentionMonitor.report());
+    }
+}
@@ -0,0 +1,140 @@
+package kata.demo.diagnostics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import kata.demo.dto.ContentionReport;
+import kata.demo.service.AccountService;
+import kata.demo.service.UpdateProbe;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Samples the updates of the accounts to find the hot accounts and the time spent waiting for their lock.
+ * An unsampled update only costs a random number, a sampled one is recorded in a heavy hitters sketch of the current time window,
+ * so the overhead and the memory stay bounded whatever the number of accounts and the update rate.
+ */
+@Service
+public class ContentionMonitor implements UpdateProbe {
+
+    private final AccountService accountService;
+    private final int sampleRate;
+    private final int topN;
+    private final long windowNanos;
+    private final int capacity;
+
+    private final Timer waitTimer;
+
+    // guarded by this
+    private Window current;
+    private Window previous;
+
+    public ContentionMonitor(AccountService accountService,
+                             @Value("${account.contention.sample-rate:64}") int sampleRate,
+                             @Value("${account.contention.top-n:10}") int topN,
+                             @Value("${account.contention.window-ms:10000}") long windowMs,
+                             MeterRegistry meterRegistry) {
+        this.accountService = accountService;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.topN = topN;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        // tracking 10 times more accounts than reported keeps the error on the reported ones low
+        this.capacity = topN * 10;
+        this.current = new Window(System.nanoTime(), capacity);
+        this.waitTimer = Timer.builder("account.update.wait")
+                .description("Time spent waiting for the lock of the account, on a sample of the updates")
+                .register(meterRegistry);
+        meterRegistry.gauge("account.contention.hottest.rate", this, ContentionMonitor::hottestRate);
+    }
+
+    @PostConstruct
+    private void registerProbe() {
+        accountService.setUpdateProbe(this);
+    }
+
+    @Override
+    public boolean sample() {
+        return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+    @Override
+    public void sampled(UUID accountId, long waitNanos, long lockNanos) {
+        waitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+        synchronized (this) {
+            Window window = window(System.nanoTime());
+            window.hitters.add(accountId, waitNanos, lockNanos);
+            window.waitNanos += waitNanos;
+            window.maxWaitNanos = Math.max(window.maxWaitNanos, waitNanos);
+        }
+    }
+
+    /**
+     * @return the contention over the last complete window, or over the current one if none is complete yet
+     */
+    public synchronized ContentionReport report() {
+        long now = System.nanoTime();
+        Window window = window(now);
+        long endNanos = now;
+        if (previous != null) {
+            window = previous;
+            endNanos = current.startNanos;
+        }
+        double seconds = Math.max(1, endNanos - window.startNanos) / 1e9;
+        long sampled = window.hitters.total();
+        List<ContentionReport.HotAccount> hotAccounts = window.hitters.top(topN).stream()
+                .map(entry -> ContentionReport.HotAccount.builder()
+                        .accountId(entry.accountId)
+                        .estimatedUpdatesPerSecond(entry.count * sampleRate / seconds)
+                        .maxErrorPerSecond(entry.error * sampleRate / seconds)
+                        .share((double) entry.count / sampled)
+                        .meanWaitMicros(entry.waitNanos / 1e3 / entry.samples)
+                        .maxWaitMicros(entry.maxWaitNanos / 1e3)
+                        .meanLockMicros(entry.lockNanos / 1e3 / entry.samples)
+                        .build())
+                .collect(Collectors.toList());
+        return ContentionReport.builder()
+                .sampleRate(sampleRate)
+                .windowMs(TimeUnit.NANOSECONDS.toMillis(endNanos - window.startNanos))
+                .sampledUpdates(sampled)
+                .estimatedUpdatesPerSecond(sampled * sampleRate / seconds)
+                .meanWaitMicros(sampled == 0 ? 0 : window.waitNanos / 1e3 / sampled)
+                .maxWaitMicros(window.maxWaitNanos / 1e3)
+                .hotAccounts(hotAccounts)
+                .build();
+    }
+
+    private double hottestRate() {
+        List<ContentionReport.HotAccount> hotAccounts = report().getHotAccounts();
+        return hotAccounts.isEmpty() ? 0 : hotAccounts.get(0).getEstimatedUpdatesPerSecond();
+    }
+
+    /**
+     * @return the current window, rolled over if it has ended
+     */
+    private Window window(long now) {
+        if (now - current.startNanos >= windowNanos) {
+            // a window without any update in between is an empty previous window
+            previous = now - current.startNanos >= 2 * windowNanos ? new Window(now - windowNanos, capacity) : current;
+            current = new Window(previous.startNanos + windowNanos, capacity);
+        }
+        return current;
+    }
+
+    private static final class Window {
+        private final long startNanos;
+        private final HeavyHitters hitters;
+        private long waitNanos;
+        private long maxWaitNanos;
+
+        private Window(long startNanos, int capacity) {
+            this.startNanos = startNanos;
+            this.hitters = new HeavyHitters(capacity);
+        }
+    }
+}
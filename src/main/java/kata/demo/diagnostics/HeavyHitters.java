@@ -0,0 +1,85 @@
+package kata.demo.diagnostics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Space-Saving sketch of the most updated accounts, in a memory bounded by its capacity whatever the number of accounts.
+ * The count of an account is overestimated by at most its error, and every account more frequent than 1/capacity of the updates
+ * is guaranteed to be tracked. Not thread safe.
+ */
+class HeavyHitters {
+
+    private final int capacity;
+    private final Map<UUID, Entry> entries;
+    private long total;
+
+    HeavyHitters(int capacity) {
+        this.capacity = capacity;
+        this.entries = new HashMap<>(capacity * 2);
+    }
+
+    void add(UUID accountId, long waitNanos, long lockNanos) {
+        total++;
+        Entry entry = entries.get(accountId);
+        if (entry == null) {
+            if (entries.size() < capacity) {
+                entry = new Entry(accountId, 0);
+            } else {
+                // the least frequent account is replaced, the new one inherits its count as error
+                Entry min = entries.values().stream().min(Comparator.comparingLong(e -> e.count)).orElseThrow();
+                entries.remove(min.accountId);
+                entry = new Entry(accountId, min.count);
+            }
+            entries.put(accountId, entry);
+        }
+        entry.count++;
+        entry.samples++;
+        entry.waitNanos += waitNanos;
+        entry.maxWaitNanos = Math.max(entry.maxWaitNanos, waitNanos);
+        entry.lockNanos += lockNanos;
+    }
+
+    /**
+     * @return the number of updates added
+     */
+    long total() {
+        return total;
+    }
+
+    /**
+     * @param n number of accounts
+     * @return the n most frequent accounts, the most frequent first
+     */
+    List<Entry> top(int n) {
+        List<Entry> top = new ArrayList<>(entries.values());
+        top.sort(Comparator.comparingLong((Entry e) -> e.count).reversed());
+        return new ArrayList<>(top.subList(0, Math.min(n, top.size())));
+    }
+
+    static final class Entry {
+        final UUID accountId;
+        /**
+         * maximum overestimation of the count
+         */
+        final long error;
+        long count;
+        /**
+         * updates added since the account is tracked, which the wait and lock times are measured on
+         */
+        long samples;
+        long waitNanos;
+        long maxWaitNanos;
+        long lockNanos;
+
+        private Entry(UUID accountId, long error) {
+            this.accountId = accountId;
+            this.error = error;
+            this.count = error;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package kata.demo.document;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import kata.demo.dto.DocumentReport;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.YearMonth;
+
+@RestController
+@RequestMapping("/documents")
+@RequiredArgsConstructor
+public class DocumentController {
+
+    private final StatementDocumentService statementDocumentService;
+
+    @Operation(summary = "Generate the statement documents of all the accounts for a month")
+    @ApiResponse(responseCode = "200", description = "Documents generated")
+    @ApiResponse(responseCode = "409", description = "The generation is already running")
+    @Parameter(name = "period", in = ParameterIn.PATH, description = "Month of the statements", example = "2022-01")
+    @PostMapping("/{period}")
+    public ResponseEntity<DocumentReport> generate(@PathVariable @DateTimeFormat(pattern = "yyyy-MM") YearMonth period) {
+        return ResponseEntity.ok(statementDocumentService.generate(period));
+    }
+}
@@ -0,0 +1,150 @@
+package kata.demo.document;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Writes documents one after the other into rolling files, through a fixed size buffer, so the memory used does not depend
+ * on the number nor the size of the documents. A document is never split over two files: a new file is started before a document
+ * once the current one has reached its maximum size. Every document is recorded in an index file with its file, offset and length.
+ * Not thread safe, every worker has its own writer.
+ */
+final class DocumentWriter implements Closeable {
+
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private final Path directory;
+    private final String prefix;
+    private final long maxFileBytes;
+    // allocated once for all the files of the writer, the off-heap memory of a buffer is only released when it is garbage collected
+    private final ByteBuffer fileBuffer;
+
+    private final BufferedChannel index;
+    private BufferedChannel file;
+    private String fileName;
+    private int files;
+    private long closedBytes;
+
+    private UUID documentId;
+    private long documentOffset;
+
+    DocumentWriter(Path directory, String prefix, long maxFileBytes, int bufferBytes) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxFileBytes = maxFileBytes;
+        this.fileBuffer = ByteBuffer.allocateDirect(bufferBytes);
+        this.index = new BufferedChannel(directory.resolve(prefix + ".index"), ByteBuffer.allocateDirect(8 * 1024));
+    }
+
+    void startDocument(UUID id) throws IOException {
+        if (file == null || file.position() >= maxFileBytes) {
+            roll();
+        }
+        documentId = id;
+        documentOffset = file.position();
+    }
+
+    void write(String line) throws IOException {
+        file.write(line.getBytes(StandardCharsets.UTF_8));
+        file.write(NEW_LINE);
+    }
+
+    void endDocument() throws IOException {
+        index.write((documentId + ";" + fileName + ";" + documentOffset + ";" + (file.position() - documentOffset) + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the number of files written
+     */
+    int files() {
+        return files;
+    }
+
+    /**
+     * @return the number of bytes of the documents written
+     */
+    long bytes() {
+        return file == null ? 0 : file.position() + closedBytes;
+    }
+
+    private void roll() throws IOException {
+        if (file != null) {
+            closedBytes += file.position();
+            file.close();
+        }
+        files++;
+        fileName = String.format("%s-%04d.txt", prefix, files);
+        file = new BufferedChannel(directory.resolve(fileName), fileBuffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (file != null) {
+                file.close();
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    private static final class BufferedChannel implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long position;
+
+        /**
+         * @param buffer the buffer, empty, which can be reused once the channel is closed
+         */
+        private BufferedChannel(Path path, ByteBuffer buffer) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = buffer;
+            buffer.clear();
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            position += bytes.length;
+            if (bytes.length > buffer.remaining()) {
+                flush();
+                if (bytes.length > buffer.capacity()) {
+                    // larger than the buffer, written as is
+                    writeFully(ByteBuffer.wrap(bytes));
+                    return;
+                }
+            }
+            buffer.put(bytes);
+        }
+
+        private long position() {
+            return position;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package kata.demo.document;
+
+import kata.demo.dto.Account;
+import kata.demo.dto.DocumentReport;
+import kata.demo.dto.Statement;
+import kata.demo.exception.DocumentsAlreadyRunningException;
+import kata.demo.exception.ReadOnlyReplicaException;
+import kata.demo.service.AccountService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the monthly statement document of every account: its opening balance, the operations of the month with the running
+ * balance, and its closing balance.
+ * The accounts are read straight from the storage by parallel workers, a chunk at a time, and every worker writes its documents
+ * into its own rolling files through a fixed size buffer, so the memory used stays bounded whatever the number of accounts.
+ * The documents of a month are found through the index files written next to them.
+ */
+@Slf4j
+@Service
+public class StatementDocumentService {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
+    private static final int CHUNK_SIZE = 256;
+
+    private final AccountService accountService;
+    private final Path directory;
+    private final int parallelism;
+    private final long maxFileBytes;
+    private final int bufferBytes;
+    private final boolean follower;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public StatementDocumentService(AccountService accountService,
+                                    @Value("${account.documents.directory:${java.io.tmpdir}/account-documents}") String directory,
+                                    @Value("${account.documents.parallelism:0}") int parallelism,
+                                    @Value("${account.documents.max-file-bytes:67108864}") long maxFileBytes,
+                                    @Value("${account.documents.buffer-bytes:262144}") int bufferBytes,
+                                    @Value("${account.replication.role:}") String replicationRole) {
+        this.accountService = accountService;
+        this.directory = Paths.get(directory);
+        // by default, half of the cores are left to the live traffic
+        this.parallelism = parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.maxFileBytes = maxFileBytes;
+        this.bufferBytes = bufferBytes;
+        // the documents are generated once, by the leader
+        this.follower = "follower".equals(replicationRole);
+    }
+
+    @Scheduled(cron = "${account.documents.cron:-}")
+    void scheduledGeneration() {
+        if (follower) {
+            return;
+        }
+        generate(YearMonth.now().minusMonths(1));
+    }
+
+    /**
+     * Generate the statement documents of all the accounts for a month, replacing the ones already generated for this month
+     *
+     * @param period the month
+     * @return the report of the generation
+     */
+    public DocumentReport generate(YearMonth period) {
+        if (follower) {
+            throw new ReadOnlyReplicaException();
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new DocumentsAlreadyRunningException();
+        }
+        try {
+            return doGenerate(period);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not generate the statement documents of " + period, e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private DocumentReport doGenerate(YearMonth period) throws IOException {
+        long start = System.nanoTime();
+        Path periodDirectory = directory.resolve(period.toString());
+        prepare(periodDirectory);
+
+        Generation generation = new Generation(period, accountService.findAll().iterator());
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int worker = 1; worker <= parallelism; worker++) {
+                String prefix = String.format("statements-%s-%02d", period, worker);
+                futures.add(workers.submit(() -> {
+                    generateDocuments(generation, new DocumentWriter(periodDirectory, prefix, maxFileBytes, bufferBytes));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating the statement documents of " + period, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Could not generate the statement documents of " + period, e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+
+        long durationNanos = System.nanoTime() - start;
+        DocumentReport report = DocumentReport.builder()
+                .period(period)
+                .directory(periodDirectory.toString())
+                .accounts(generation.accounts.get())
+                .statements(generation.statements.get())
+                .files(generation.files.get())
+                .bytes(generation.bytes.get())
+                .durationMs(TimeUnit.NANOSECONDS.toMillis(durationNanos))
+                .accountsPerSecond(generation.accounts.get() / Math.max(durationNanos / 1e9, 1e-9))
+                .build();
+        log.info("Statement documents generated: {}", report);
+        return report;
+    }
+
+    /**
+     * Remove the documents of a previous generation, which may have been written by more workers
+     */
+    private static void prepare(Path periodDirectory) throws IOException {
+        Files.createDirectories(periodDirectory);
+        try (DirectoryStream<Path> previous = Files.newDirectoryStream(periodDirectory, "statements-*")) {
+            for (Path file : previous) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private void generateDocuments(Generation generation, DocumentWriter writer) throws IOException {
+        try (writer) {
+            List<Account> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (generation.nextChunk(chunk)) {
+                for (Account account : chunk) {
+                    generation.statements.addAndGet(writeDocument(generation, account, writer));
+                }
+                generation.accounts.addAndGet(chunk.size());
+                chunk.clear();
+            }
+        } finally {
+            generation.files.addAndGet(writer.files());
+            generation.bytes.addAndGet(writer.bytes());
+        }
+    }
+
+    /**
+     * @return the number of statements of the month
+     */
+    private int writeDocument(Generation generation, Account account, DocumentWriter writer) throws IOException {
+        // the account is immutable, so the balance and the statements are consistent with each other
+        List<Statement> statements = account.getStatements();
+        List<Statement> ofPeriod = new ArrayList<>();
+        BigDecimal sinceStart = BigDecimal.ZERO;
+        boolean sorted = true;
+        for (Statement statement : statements) {
+            LocalDateTime date = statement.getDate();
+            if (date == null || date.isBefore(generation.start)) {
+                continue;
+            }
+            // the balance at the start of the month is the current one without the statements made since
+            sinceStart = statement.applyStatement(sinceStart);
+            if (date.isBefore(generation.end)) {
+                sorted &= ofPeriod.isEmpty() || !date.isBefore(ofPeriod.get(ofPeriod.size() - 1).getDate());
+                ofPeriod.add(statement);
+            }
+        }
+        if (!sorted) {
+            ofPeriod.sort(Comparator.comparing(Statement::getDate));
+        }
+        BigDecimal balance = account.getBalance().subtract(sinceStart);
+
+        writer.startDocument(account.getId());
+        writer.write("STATEMENT OF ACCOUNT " + account.getId() + " " + account.getType());
+        writer.write("PERIOD " + generation.period);
+        writer.write(row("OPENING BALANCE", "", "", balance.toPlainString()));
+        writer.write(row("DATE", "TYPE", "AMOUNT", "BALANCE"));
+        for (Statement statement : ofPeriod) {
+            balance = statement.applyStatement(balance);
+            writer.write(row(DATE_FORMAT.format(statement.getDate()), statement.getType().name(),
+                    statement.getAmount().toPlainString(), balance.toPlainString()));
+        }
+        writer.write(row("CLOSING BALANCE", "", "", balance.toPlainString()));
+        writer.write("");
+        writer.endDocument();
+        return ofPeriod.size();
+    }
+
+    private static String row(String date, String type, String amount, String balance) {
+        StringBuilder row = new StringBuilder(64);
+        pad(row, date, 20);
+        pad(row, type, 12);
+        padLeft(row, amount, 16);
+        padLeft(row, balance, 16);
+        return row.toString();
+    }
+
+    private static void pad(StringBuilder row, String value, int width) {
+        row.append(value);
+        for (int i = value.length(); i < width; i++) {
+            row.append(' ');
+        }
+    }
+
+    private static void padLeft(StringBuilder row, String value, int width) {
+        for (int i = value.length(); i < width; i++) {
+            row.append(' ');
+        }
+        row.append(value);
+    }
+
+    private static final class Generation {
+        private final YearMonth period;
+        private final LocalDateTime start;
+        private final LocalDateTime end;
+        // guarded by itself, the view of the storage is not a snapshot, every account is read once
+        private final Iterator<Account> remaining;
+        private final AtomicLong accounts = new AtomicLong();
+        private final AtomicLong statements = new AtomicLong();
+        private final AtomicInteger files = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Generation(YearMonth period, Iterator<Account> remaining) {
+            this.period = period;
+            this.start = period.atDay(1).atStartOfDay();
+            this.end = period.plusMonths(1).atDay(1).atStartOfDay();
+            this.remaining = remaining;
+        }
+
+        /**
+         * @return false if there is no more account
+         */
+        private boolean nextChunk(List<Account> chunk) {
+            synchronized (remaining) {
+                while (chunk.size() < CHUNK_SIZE && remaining.hasNext()) {
+                    chunk.add(remaining.next());
+                }
+            }
+            return !chunk.isEmpty();
+        }
+    }
+}
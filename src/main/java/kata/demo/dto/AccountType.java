@@ -5,7 +5,11 @@ package kata.demo.dto;
  */
 public enum AccountType {
     /**
-     * a regular account type
+     * a regular account type, charged with a monthly fee
      */
-    CHECKING
+    CHECKING,
+    /**
+     * a savings account type, earning interest every day
+     */
+    SAVINGS
 }
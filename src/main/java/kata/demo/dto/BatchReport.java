@@ -0,0 +1,37 @@
+package kata.demo.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.LocalDate;
+
+/**
+ * The report of a run of the end of day batch
+ */
+@Value
+@Builder
+public class BatchReport {
+    String job;
+    LocalDate businessDate;
+    int partitions;
+    /**
+     * partitions already done by a previous run, which crashed or was stopped
+     */
+    int resumedPartitions;
+    long accounts;
+    long appliedStatements;
+    /**
+     * accounts which could not be updated, e.g. because of a concurrent withdrawal
+     */
+    long failedAccounts;
+    long durationMs;
+    double accountsPerSecond;
+    /**
+     * HTTP requests served in the account.batch.baseline-ms window just before the run, and their mean latency,
+     * to compare with the ones during the run
+     */
+    long foregroundRequestsBefore;
+    double foregroundMeanLatencyMsBefore;
+    long foregroundRequestsDuring;
+    double foregroundMeanLatencyMsDuring;
+}
@@ -0,0 +1,49 @@
+package kata.demo.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The contention in the update path of the accounts, estimated from a sample of the updates
+ */
+@Value
+@Builder
+public class ContentionReport {
+    /**
+     * one update out of sampleRate is observed
+     */
+    int sampleRate;
+    long windowMs;
+    long sampledUpdates;
+    double estimatedUpdatesPerSecond;
+    double meanWaitMicros;
+    double maxWaitMicros;
+    /**
+     * the most updated accounts, the most updated first
+     */
+    List<HotAccount> hotAccounts;
+
+    @Value
+    @Builder
+    public static class HotAccount {
+        UUID accountId;
+        double estimatedUpdatesPerSecond;
+        /**
+         * the estimated rate is overestimated by at most this rate
+         */
+        double maxErrorPerSecond;
+        /**
+         * share of the updates made on this account
+         */
+        double share;
+        /**
+         * a long wait on an account which is not updated much means it waits for other accounts of the same storage bin
+         */
+        double meanWaitMicros;
+        double maxWaitMicros;
+        double meanLockMicros;
+    }
+}
@@ -0,0 +1,25 @@
+package kata.demo.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.YearMonth;
+
+/**
+ * The report of a generation of the statement documents
+ */
+@Value
+@Builder
+public class DocumentReport {
+    YearMonth period;
+    /**
+     * where the documents and their index are written
+     */
+    String directory;
+    long accounts;
+    long statements;
+    int files;
+    long bytes;
+    long durationMs;
+    double accountsPerSecond;
+}
@@ -0,0 +1,29 @@
+package kata.demo.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.time.LocalDateTime;
+
+/**
+ * The mapper of the accounts exchanged between nodes: the statement dates keep their full precision instead of the display format of the API
+ */
+public final class InternalObjectMapper {
+
+    private InternalObjectMapper() {
+    }
+
+    /**
+     * @param objectMapper the mapper of the API
+     * @return the mapper of the accounts exchanged between nodes
+     */
+    public static ObjectMapper of(ObjectMapper objectMapper) {
+        return objectMapper.copy()
+                .addMixIn(Statement.class, StatementMixIn.class);
+    }
+
+    private abstract static class StatementMixIn {
+        @JsonFormat
+        LocalDateTime date;
+    }
+}
@@ -0,0 +1,16 @@
+package kata.demo.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.Set;
+
+/**
+ * The result of adding a node to the cluster
+ */
+@Value
+@Builder
+public class Rebalancing {
+    Set<String> nodes;
+    int movedAccounts;
+}
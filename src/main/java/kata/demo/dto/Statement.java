@@ -26,8 +26,10 @@ public class Statement {
     public BigDecimal applyStatement(BigDecimal balance) {
         switch (type) {
             case DEPOSIT:
+            case INTEREST:
                 return balance.add(amount);
             case WITHDRAWAL:
+            case FEE:
                 return balance.subtract(amount);
             default:
                 throw new IllegalStateException("Statement type is not recognized: " + type);
@@ -0,0 +1,95 @@
+package kata.demo.dto;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The immutable statements of an account at a given version.
+ * Appending a statement returns a new version sharing the same storage, so that no statement is ever copied when they are appended
+ * one after the other, and every previous version stays valid and unchanged: a version only sees the statements appended before it.
+ */
+public final class StatementHistory extends AbstractList<Statement> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final Storage storage;
+    private final int size;
+
+    private StatementHistory(Storage storage, int size) {
+        this.storage = storage;
+        this.size = size;
+    }
+
+    /**
+     * @param statements the statements, can be null
+     * @return the statements as a history, without copying them if they already are one
+     */
+    public static StatementHistory of(List<Statement> statements) {
+        if (statements instanceof StatementHistory) {
+            return (StatementHistory) statements;
+        }
+        if (statements == null || statements.isEmpty()) {
+            return new StatementHistory(new Storage(new Statement[INITIAL_CAPACITY], 0), 0);
+        }
+        Statement[] elements = statements.toArray(new Statement[Math.max(INITIAL_CAPACITY, statements.size() * 2)]);
+        return new StatementHistory(new Storage(elements, statements.size()), statements.size());
+    }
+
+    /**
+     * Append a statement. It's written in the shared storage if this is the latest version, otherwise the statements are copied.
+     * It must not be called concurrently on the same version, the statements of an account are appended under the lock of the account.
+     *
+     * @param statement the statement to append
+     * @return the new version, this one is unchanged
+     */
+    public StatementHistory append(Statement statement) {
+        Statement[] elements = storage.elements;
+        if (size < elements.length && storage.length.compareAndSet(size, size + 1)) {
+            elements[size] = statement;
+            return new StatementHistory(storage, size + 1);
+        }
+        Statement[] grown = Arrays.copyOf(elements, Math.max(INITIAL_CAPACITY, size * 2));
+        // the slots after this version may be used by another version
+        Arrays.fill(grown, size, grown.length, null);
+        grown[size] = statement;
+        return new StatementHistory(new Storage(grown, size + 1), size + 1);
+    }
+
+    /**
+     * @param version number of statements of the previous version
+     * @return the previous version, sharing the same storage
+     */
+    public StatementHistory prefix(int version) {
+        if (version < 0 || version > size) {
+            throw new IndexOutOfBoundsException("Version " + version + " is not in a history of " + size + " statements");
+        }
+        return version == size ? this : new StatementHistory(storage, version);
+    }
+
+    @Override
+    public Statement get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        return storage.elements[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private static final class Storage {
+        private final Statement[] elements;
+        // number of slots used by the latest version
+        private final AtomicInteger length;
+
+        private Storage(Statement[] elements, int length) {
+            this.elements = elements;
+            this.length = new AtomicInteger(length);
+        }
+    }
+}
@@ -17,4 +17,8 @@ public class StatementPrinting {
     int totalPages;
     long totalStatements;
     BigDecimal accountBalance;
+    /**
+     * version of the account which is printed, to pass as snapshot parameter to print the other pages from the same version
+     */
+    long snapshot;
 }
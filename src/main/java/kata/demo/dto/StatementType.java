@@ -5,5 +5,13 @@ package kata.demo.dto;
  */
 public enum StatementType {
     DEPOSIT,
-    WITHDRAWAL
+    WITHDRAWAL,
+    /**
+     * interest paid by the bank, applied by the end of day batch
+     */
+    INTEREST,
+    /**
+     * fee charged by the bank, applied by the end of day batch
+     */
+    FEE
 }
@@ -0,0 +1,16 @@
+package kata.demo.exception;
+
+import lombok.Getter;
+
+/**
+ * Exception when too many operations are already in flight, either on the account or on the whole service
+ */
+@Getter
+public class AccountOverloadedException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public AccountOverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,10 @@
+package kata.demo.exception;
+
+/**
+ * Exception when the end of day batch is started while it's already running
+ */
+public class BatchAlreadyRunningException extends RuntimeException {
+    public BatchAlreadyRunningException() {
+        super("The end of day batch is already running");
+    }
+}
@@ -0,0 +1,10 @@
+package kata.demo.exception;
+
+/**
+ * Exception when the generation of the statement documents is started while it's already running
+ */
+public class DocumentsAlreadyRunningException extends RuntimeException {
+    public DocumentsAlreadyRunningException() {
+        super("The generation of the statement documents is already running");
+    }
+}
@@ -0,0 +1,12 @@
+package kata.demo.exception;
+
+import java.util.UUID;
+
+/**
+ * Exception when a snapshot of an account is not retained anymore
+ */
+public class SnapshotExpiredException extends RuntimeException {
+    public SnapshotExpiredException(UUID id, long snapshot) {
+        super("Snapshot " + snapshot + " of account " + id + " has expired, print the statements again from the first page");
+    }
+}
@@ -0,0 +1,191 @@
+package kata.demo.replication;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import kata.demo.dto.Account;
+import kata.demo.dto.InternalObjectMapper;
+import kata.demo.exception.AccountNotFoundException;
+import kata.demo.service.AccountService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connects to the leader and applies its operations to the local accounts, which are then served read-only.
+ * The follower reconnects, and catches up from a new snapshot, whenever the stream is broken or an operation is missing.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "account.replication.role", havingValue = "follower")
+public class ReplicationFollower {
+
+    private final AccountService accountService;
+    private final ObjectMapper objectMapper;
+    private final String leaderHost;
+    private final int leaderPort;
+    private final long reconnectDelayMs;
+
+    private final AtomicLong leaderSequence = new AtomicLong();
+    private final AtomicLong appliedSequence = new AtomicLong();
+    private final AtomicLong lagMs = new AtomicLong();
+    private volatile boolean running = true;
+    private volatile boolean caughtUp;
+    private volatile Socket socket;
+    // the accounts of the snapshot being applied, null once it's applied
+    private Set<UUID> snapshotAccounts;
+
+    public ReplicationFollower(AccountService accountService,
+                               ObjectMapper objectMapper,
+                               MeterRegistry meterRegistry,
+                               @Value("${account.replication.leader-host:localhost}") String leaderHost,
+                               @Value("${account.replication.port:7070}") int leaderPort,
+                               @Value("${account.replication.reconnect-delay-ms:1000}") long reconnectDelayMs) {
+        this.accountService = accountService;
+        this.objectMapper = InternalObjectMapper.of(objectMapper);
+        this.leaderHost = leaderHost;
+        this.leaderPort = leaderPort;
+        this.reconnectDelayMs = reconnectDelayMs;
+        meterRegistry.gauge("account.replication.lag.ms", lagMs);
+        meterRegistry.gauge("account.replication.lag.operations", this, ReplicationFollower::getLagOperations);
+    }
+
+    @PostConstruct
+    private void start() {
+        ReplicationLeader.daemon("replication-follower").newThread(this::follow).start();
+    }
+
+    @PreDestroy
+    private void stop() throws IOException {
+        running = false;
+        Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * @return true once the snapshot of the leader is applied
+     */
+    public boolean isCaughtUp() {
+        return caughtUp;
+    }
+
+    /**
+     * @return the number of operations of the leader which are not applied yet
+     */
+    public long getLagOperations() {
+        return Math.max(0, leaderSequence.get() - appliedSequence.get());
+    }
+
+    private void follow() {
+        while (running) {
+            try (Socket connected = new Socket(leaderHost, leaderPort);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(connected.getInputStream(), StandardCharsets.UTF_8))) {
+                socket = connected;
+                log.info("Connected to the replication leader {}:{}", leaderHost, leaderPort);
+                String line;
+                while (running && (line = reader.readLine()) != null) {
+                    apply(objectMapper.readValue(line, ReplicationMessage.class));
+                }
+            } catch (IOException | ReplicationGapException e) {
+                if (running) {
+                    log.info("Replication from {}:{} interrupted, catching up again: {}", leaderHost, leaderPort, e.getMessage());
+                }
+            }
+            caughtUp = false;
+            pause();
+        }
+    }
+
+    private void apply(ReplicationMessage message) {
+        switch (message.getType()) {
+            case SNAPSHOT_START:
+                caughtUp = false;
+                snapshotAccounts = new HashSet<>();
+                break;
+            case SNAPSHOT_END:
+                removeAccountsNotIn(snapshotAccounts);
+                snapshotAccounts = null;
+                caughtUp = true;
+                break;
+            case ACCOUNT:
+                accountService.save(message.getAccount());
+                if (snapshotAccounts != null) {
+                    snapshotAccounts.add(message.getAccountId());
+                }
+                break;
+            case STATEMENT:
+                applyStatement(message);
+                break;
+            case REMOVED:
+                accountService.remove(message.getAccountId());
+                break;
+            case HEARTBEAT:
+                break;
+            default:
+                throw new IllegalStateException("Replication message type is not recognized: " + message.getType());
+        }
+        leaderSequence.accumulateAndGet(message.getSequence(), Math::max);
+        if (message.getType() != ReplicationMessage.Type.HEARTBEAT) {
+            appliedSequence.accumulateAndGet(message.getSequence(), Math::max);
+        }
+        lagMs.set(Math.max(0, System.currentTimeMillis() - message.getTimestamp()));
+    }
+
+    /**
+     * Remove the accounts which were removed from the leader while this follower was disconnected
+     */
+    private void removeAccountsNotIn(Set<UUID> snapshot) {
+        for (Account account : accountService.findAll()) {
+            if (!snapshot.contains(account.getId())) {
+                accountService.remove(account);
+            }
+        }
+    }
+
+    private void applyStatement(ReplicationMessage message) {
+        int localVersion;
+        try {
+            localVersion = accountService.findById(message.getAccountId()).getStatements().size();
+        } catch (AccountNotFoundException e) {
+            throw new ReplicationGapException("account " + message.getAccountId() + " is unknown");
+        }
+        // the statement was already part of the snapshot
+        if (localVersion >= message.getVersion()) {
+            return;
+        }
+        if (localVersion != message.getVersion() - 1) {
+            throw new ReplicationGapException("account " + message.getAccountId() + " is at version " + localVersion
+                    + " but the statement is for version " + message.getVersion());
+        }
+        accountService.update(message.getAccountId(), message.getStatement());
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(reconnectDelayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static class ReplicationGapException extends RuntimeException {
+        ReplicationGapException(String message) {
+            super(message);
+        }
+    }
+}
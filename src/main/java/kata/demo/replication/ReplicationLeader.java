@@ -0,0 +1,233 @@
+package kata.demo.replication;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import kata.demo.dto.Account;
+import kata.demo.dto.InternalObjectMapper;
+import kata.demo.dto.Statement;
+import kata.demo.service.AccountListener;
+import kata.demo.service.AccountService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams the operations made on the accounts to the followers connected on the replication port.
+ * A new follower first receives a snapshot of all the accounts, then the live operations. A follower which can't keep up
+ * with the operations is disconnected, it will catch up again from a new snapshot when it reconnects.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "account.replication.role", havingValue = "leader")
+public class ReplicationLeader implements AccountListener {
+
+    private final AccountService accountService;
+    private final ObjectMapper objectMapper;
+    private final int port;
+    private final int maxPendingMessages;
+    private final long heartbeatIntervalMs;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<FollowerSession> followers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(daemon("replication-heartbeat"));
+    private ServerSocket serverSocket;
+
+    public ReplicationLeader(AccountService accountService,
+                             ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry,
+                             @Value("${account.replication.port:7070}") int port,
+                             @Value("${account.replication.max-pending-messages:100000}") int maxPendingMessages,
+                             @Value("${account.replication.heartbeat-interval-ms:1000}") long heartbeatIntervalMs) {
+        this.accountService = accountService;
+        this.objectMapper = InternalObjectMapper.of(objectMapper);
+        this.port = port;
+        this.maxPendingMessages = maxPendingMessages;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+        meterRegistry.gauge("account.replication.followers", followers, List::size);
+        meterRegistry.gauge("account.replication.sequence", sequence);
+    }
+
+    @PostConstruct
+    private void start() throws IOException {
+        serverSocket = new ServerSocket(port);
+        accountService.addListener(this);
+        daemon("replication-leader").newThread(this::acceptFollowers).start();
+        heartbeats.scheduleAtFixedRate(() -> publish(ReplicationMessage.builder()
+                        .type(ReplicationMessage.Type.HEARTBEAT)
+                        .sequence(sequence.get())
+                        .timestamp(System.currentTimeMillis())
+                        .build()),
+                heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Replication leader listening on port {}", getPort());
+    }
+
+    @PreDestroy
+    private void stop() throws IOException {
+        heartbeats.shutdownNow();
+        serverSocket.close();
+        followers.forEach(FollowerSession::close);
+    }
+
+    /**
+     * @return the port the followers connect to
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void onAccountSaved(Account account) {
+        publish(ReplicationMessage.builder()
+                .type(ReplicationMessage.Type.ACCOUNT)
+                .sequence(sequence.incrementAndGet())
+                .timestamp(System.currentTimeMillis())
+                .accountId(account.getId())
+                .version(account.getStatements().size())
+                .account(account)
+                .build());
+    }
+
+    @Override
+    public void onStatementAppended(Account account, Statement statement) {
+        publish(ReplicationMessage.builder()
+                .type(ReplicationMessage.Type.STATEMENT)
+                .sequence(sequence.incrementAndGet())
+                .timestamp(System.currentTimeMillis())
+                .accountId(account.getId())
+                .version(account.getStatements().size())
+                .statement(statement)
+                .build());
+    }
+
+    @Override
+    public void onAccountRemoved(Account account) {
+        publish(ReplicationMessage.builder()
+                .type(ReplicationMessage.Type.REMOVED)
+                .sequence(sequence.incrementAndGet())
+                .timestamp(System.currentTimeMillis())
+                .accountId(account.getId())
+                .build());
+    }
+
+    private void publish(ReplicationMessage message) {
+        for (FollowerSession follower : followers) {
+            // never block the writers: a follower which is too late is dropped and will catch up from a snapshot
+            if (!follower.pending.offer(message)) {
+                log.warn("Follower {} is too late, disconnecting it", follower.socket.getRemoteSocketAddress());
+                follower.close();
+            }
+        }
+    }
+
+    private void acceptFollowers() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                FollowerSession follower = new FollowerSession(socket, new ArrayBlockingQueue<>(maxPendingMessages));
+                // registered before the snapshot is taken so that no operation falls between the snapshot and the live stream
+                followers.add(follower);
+                daemon("replication-follower-" + socket.getRemoteSocketAddress()).newThread(() -> replicate(follower)).start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Could not accept a follower", e);
+                }
+            }
+        }
+    }
+
+    private void replicate(FollowerSession follower) {
+        log.info("Follower {} connected", follower.socket.getRemoteSocketAddress());
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(follower.socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            long snapshotSequence = sequence.get();
+            write(writer, ReplicationMessage.builder()
+                    .type(ReplicationMessage.Type.SNAPSHOT_START)
+                    .sequence(snapshotSequence)
+                    .timestamp(System.currentTimeMillis())
+                    .build());
+            for (Account account : accountService.findAll()) {
+                write(writer, ReplicationMessage.builder()
+                        .type(ReplicationMessage.Type.ACCOUNT)
+                        .sequence(snapshotSequence)
+                        .timestamp(System.currentTimeMillis())
+                        .accountId(account.getId())
+                        .version(account.getStatements().size())
+                        .account(account)
+                        .build());
+            }
+            write(writer, ReplicationMessage.builder()
+                    .type(ReplicationMessage.Type.SNAPSHOT_END)
+                    .sequence(snapshotSequence)
+                    .timestamp(System.currentTimeMillis())
+                    .build());
+            writer.flush();
+            while (!follower.socket.isClosed()) {
+                ReplicationMessage message = follower.pending.poll(heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+                if (message != null) {
+                    write(writer, message);
+                }
+                // flush once the pending messages are drained to batch them in as few packets as possible
+                if (follower.pending.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            log.info("Follower {} disconnected: {}", follower.socket.getRemoteSocketAddress(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            follower.close();
+        }
+    }
+
+    private void write(Writer writer, ReplicationMessage message) throws IOException {
+        writer.write(objectMapper.writeValueAsString(message));
+        writer.write('\n');
+    }
+
+    static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private final class FollowerSession {
+        private final Socket socket;
+        private final BlockingQueue<ReplicationMessage> pending;
+
+        private FollowerSession(Socket socket, BlockingQueue<ReplicationMessage> pending) {
+            this.socket = socket;
+            this.pending = pending;
+        }
+
+        private void close() {
+            followers.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Could not close the follower socket", e);
+            }
+        }
+    }
+}
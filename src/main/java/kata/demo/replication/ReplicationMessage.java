@@ -0,0 +1,63 @@
+package kata.demo.replication;
+
+import kata.demo.dto.Account;
+import kata.demo.dto.Statement;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+/**
+ * A message of the replication stream, sent by the leader to its followers as one JSON document per line
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReplicationMessage {
+    Type type;
+    /**
+     * sequence number of the operation in the leader log
+     */
+    long sequence;
+    /**
+     * time the message was created on the leader, in milliseconds since epoch
+     */
+    long timestamp;
+    UUID accountId;
+    /**
+     * version of the account once the operation is applied, i.e. its number of statements
+     */
+    int version;
+    Account account;
+    Statement statement;
+
+    public enum Type {
+        /**
+         * a full copy of the leader state follows, the follower is catching up
+         */
+        SNAPSHOT_START,
+        /**
+         * the full copy of the leader state is sent, live operations follow
+         */
+        SNAPSHOT_END,
+        /**
+         * an account is created or replaced, or sent as part of the snapshot
+         */
+        ACCOUNT,
+        /**
+         * a statement is appended to an account
+         */
+        STATEMENT,
+        /**
+         * an account is removed, e.g. moved to another node of the cluster
+         */
+        REMOVED,
+        /**
+         * sent periodically so that the follower knows the leader position even when nothing happens
+         */
+        HEARTBEAT
+    }
+}
@@ -0,0 +1,34 @@
+package kata.demo.replication;
+
+import kata.demo.exception.ReadOnlyReplicaException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A follower only serves the reads of the accounts, the writes, the end of day batch and the statement documents must be sent to the leader
+ */
+@Configuration
+@ConditionalOnProperty(name = "account.replication.role", havingValue = "follower")
+public class ReplicationWebConfig implements WebMvcConfigurer {
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                HttpMethod method = HttpMethod.resolve(request.getMethod());
+                if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+                    throw new ReadOnlyReplicaException();
+                }
+                return true;
+            }
+        }).addPathPatterns("/account/**", "/account", "/batch/**", "/documents/**");
+    }
+}
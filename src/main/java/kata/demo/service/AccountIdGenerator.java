@@ -0,0 +1,15 @@
+package kata.demo.service;
+
+import java.util.UUID;
+
+/**
+ * Generates the id of the new accounts
+ */
+@FunctionalInterface
+public interface AccountIdGenerator {
+
+    /**
+     * @return a new account id
+     */
+    UUID nextId();
+}
@@ -0,0 +1,37 @@
+package kata.demo.service;
+
+import kata.demo.dto.Account;
+import kata.demo.dto.Statement;
+
+/**
+ * Listener notified by {@link AccountService} of every change made on the accounts
+ */
+public interface AccountListener {
+
+    /**
+     * Called when an account is created or replaced. Like {@link #onStatementAppended(Account, Statement)}, it's called while the account is locked,
+     * hence it must never block
+     *
+     * @param account the saved account
+     */
+    default void onAccountSaved(Account account) {
+    }
+
+    /**
+     * Called when a statement is appended to an account. It's called while the account is locked, so that listeners see the statements of an account in order,
+     * hence it must never block
+     *
+     * @param account   the updated account
+     * @param statement the appended statement
+     */
+    default void onStatementAppended(Account account, Statement statement) {
+    }
+
+    /**
+     * Called when an account is removed from this node, while the account is locked, hence it must never block
+     *
+     * @param account the removed account
+     */
+    default void onAccountRemoved(Account account) {
+    }
+}
@@ -1,24 +1,22 @@
 package kata.demo.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.json.JsonMapper;
 import kata.demo.dto.Account;
 import kata.demo.dto.Statement;
+import kata.demo.dto.StatementHistory;
 import kata.demo.exception.AccountInsufficientBalance;
 import kata.demo.exception.AccountNotFoundException;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.PostConstruct;
-import java.io.IOException;
 import java.math.BigDecimal;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 @Service
 public class AccountService {
@@ -26,18 +24,45 @@ public class AccountService {
     //FIXME Requirement is NO PERSISTENCE, so I have to manually manage the database here with these boilerplate codes....
     private final Map<UUID, Account> accountsStorage = new ConcurrentHashMap<>();
 
-    @Value("classpath:sample/account_demo.json")
-    Resource accountDemo;
+    private final List<AccountListener> listeners = new CopyOnWriteArrayList<>();
 
-    private final ObjectMapper objectMapper = JsonMapper.builder()
-            .findAndAddModules()
-            .build();
+    private volatile AccountIdGenerator idGenerator = new TimeOrderedIdGenerator();
 
-    @PostConstruct
-    private void initExampleAccount() throws IOException {
-        objectMapper.setDateFormat(new SimpleDateFormat("dd/MM/yyyy HH:mm:ss"));
-        Account account = objectMapper.readValue(accountDemo.getFile(), Account.class);
-        accountsStorage.put(account.getId(), account);
+    private volatile UpdateProbe updateProbe = UpdateProbe.NONE;
+
+    /**
+     * Register a listener to be notified of every change made on the accounts
+     *
+     * @param listener the listener
+     */
+    public void addListener(AccountListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return the generator of the id of the new accounts
+     */
+    public AccountIdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    /**
+     * Replace the generator of the id of the new accounts, which is time-ordered by default. A generator declared as a bean replaces it.
+     *
+     * @param idGenerator the generator
+     */
+    @Autowired(required = false)
+    public void setIdGenerator(AccountIdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Replace the probe observing the updates of the accounts
+     *
+     * @param updateProbe the probe
+     */
+    public void setUpdateProbe(UpdateProbe updateProbe) {
+        this.updateProbe = updateProbe;
     }
 
     /**
@@ -49,14 +74,32 @@ public class AccountService {
     public Account save(Account account) {
         // No persistence so here I need to do all READ/WRITE operations for demo
         Account newAccount = Account.builder()
-                .id(account.getId() == null ? UUID.randomUUID() : account.getId())
-                .statements(account.getStatements())
+                .id(account.getId() == null ? idGenerator.nextId() : account.getId())
+                .statements(StatementHistory.of(account.getStatements()))
                 .type(account.getType())
                 .balance(account.getBalance()).build();
-        accountsStorage.put(newAccount.getId(), newAccount);
+        // the listeners are called while the account is locked, so that they see its saves and updates in the order of the storage
+        accountsStorage.compute(newAccount.getId(), (k, v) -> {
+            listeners.forEach(listener -> listener.onAccountSaved(newAccount));
+            return newAccount;
+        });
         return newAccount;
     }
 
+    /**
+     * Create or update several accounts at once, see {@link #save(Account)}
+     *
+     * @param accounts accounts to be created or updated
+     * @return the accounts, in the same order
+     */
+    public List<Account> saveAll(List<Account> accounts) {
+        List<Account> saved = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            saved.add(save(account));
+        }
+        return saved;
+    }
+
     /**
      * Search for the account by the id
      *
@@ -71,6 +114,58 @@ public class AccountService {
         return value;
     }
 
+    /**
+     * @param id the account id
+     * @return true if the account is on this node
+     */
+    public boolean exists(UUID id) {
+        return accountsStorage.containsKey(id);
+    }
+
+    /**
+     * Remove the account from this node
+     *
+     * @param id the account id
+     * @return the removed account, or null if there was no account with this id
+     */
+    public Account remove(UUID id) {
+        Account[] removed = {null};
+        accountsStorage.computeIfPresent(id, (k, v) -> {
+            listeners.forEach(listener -> listener.onAccountRemoved(v));
+            removed[0] = v;
+            return null;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Remove the account from this node, only if it was not replaced nor updated since it was read
+     *
+     * @param account the account as it was read
+     * @return true if the account is removed
+     */
+    public boolean remove(Account account) {
+        boolean[] removed = {false};
+        accountsStorage.computeIfPresent(account.getId(), (k, v) -> {
+            if (!v.equals(account)) {
+                return v;
+            }
+            listeners.forEach(listener -> listener.onAccountRemoved(v));
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    /**
+     * All the accounts. The view is not a snapshot: accounts saved or updated while iterating may or may not be seen
+     *
+     * @return a read-only view of all the accounts
+     */
+    public Collection<Account> findAll() {
+        return Collections.unmodifiableCollection(accountsStorage.values());
+    }
+
     /**
      * Make a statement/operation to the account, be a withdrawal or a deposit. The account balance will be updated and the statement will be added to its list
      *
@@ -83,19 +178,47 @@ public class AccountService {
         if (!accountsStorage.containsKey(accountId)) {
             throw new AccountNotFoundException(accountId);
         }
-        return accountsStorage.computeIfPresent(accountId, (k, v) -> {
-            List<Statement> updatedStatements = new ArrayList<>(v.getStatements());
-            updatedStatements.add(statement);
+        UpdateProbe probe = updateProbe;
+        if (!probe.sample()) {
+            return apply(accountId, statement, null);
+        }
+        long start = System.nanoTime();
+        long[] lockedAt = {start};
+        try {
+            return apply(accountId, statement, lockedAt);
+        } finally {
+            probe.sampled(accountId, lockedAt[0] - start, System.nanoTime() - lockedAt[0]);
+        }
+    }
+
+    /**
+     * @param lockedAt where to record when the lock of the account is acquired, null if the update is not observed
+     */
+    private Account apply(UUID accountId, Statement statement, long[] lockedAt) {
+        Account updated = accountsStorage.computeIfPresent(accountId, (k, v) -> {
+            if (lockedAt != null) {
+                lockedAt[0] = System.nanoTime();
+            }
             BigDecimal updatedBalance = statement.applyStatement(v.getBalance());
             if (updatedBalance.compareTo(BigDecimal.ZERO) < 0) {
                 throw new AccountInsufficientBalance();
             }
-            return Account.builder()
+            // the previous statements are shared with the previous version of the account, not copied:
+            // a rejected statement would take the next slot of the shared storage and make the next append copy them all
+            StatementHistory updatedStatements = StatementHistory.of(v.getStatements()).append(statement);
+            Account updatedAccount = Account.builder()
                     .type(v.getType())
                     .id(v.getId())
                     .statements(updatedStatements)
                     .balance(updatedBalance)
                     .build();
+            listeners.forEach(listener -> listener.onStatementAppended(updatedAccount, statement));
+            return updatedAccount;
         });
+        // the account was removed meanwhile
+        if (updated == null) {
+            throw new AccountNotFoundException(accountId);
+        }
+        return updated;
     }
 }
@@ -0,0 +1,119 @@
+package kata.demo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import kata.demo.exception.AccountOverloadedException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the number of operations in flight, per account and for the whole service.
+ * A request that cannot get a permit within the queueing time budget is rejected right away with an {@link AccountOverloadedException},
+ * so that a single hot account cannot inflate the latency of every other account.
+ */
+@Service
+public class AdmissionService {
+
+    private final Semaphore globalPermits;
+    private final int perAccountLimit;
+    private final long queueTimeoutMs;
+    private final long retryAfterSeconds;
+
+    // Gates are only kept while at least one request is using them, so idle accounts cost nothing
+    private final Map<UUID, AccountGate> accountGates = new ConcurrentHashMap<>();
+
+    private final Counter globalRejections;
+    private final Counter accountRejections;
+
+    public AdmissionService(@Value("${account.admission.global-limit:256}") int globalLimit,
+                            @Value("${account.admission.per-account-limit:4}") int perAccountLimit,
+                            @Value("${account.admission.queue-timeout-ms:50}") long queueTimeoutMs,
+                            @Value("${account.admission.retry-after-seconds:1}") long retryAfterSeconds,
+                            MeterRegistry meterRegistry) {
+        this.globalPermits = new Semaphore(globalLimit, true);
+        this.perAccountLimit = perAccountLimit;
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.globalRejections = Counter.builder("account.admission.rejections")
+                .tag("scope", "global")
+                .description("Operations rejected because the service has too many operations in flight")
+                .register(meterRegistry);
+        this.accountRejections = Counter.builder("account.admission.rejections")
+                .tag("scope", "account")
+                .description("Operations rejected because the account has too many operations in flight")
+                .register(meterRegistry);
+        meterRegistry.gauge("account.admission.in-flight", globalPermits, permits -> globalLimit - permits.availablePermits());
+    }
+
+    /**
+     * Run the operation once a permit of the account and a global permit are acquired.
+     * The permit of the account is acquired first, so that the requests queued on a hot account do not hold global permits
+     * while they wait, which would reject the requests on every other account.
+     *
+     * @param accountId the account targeted by the operation
+     * @param operation the operation to run
+     * @param <T>       the operation result type
+     * @return the operation result
+     * @throws AccountOverloadedException if a permit could not be acquired within the queueing time budget
+     */
+    public <T> T admit(UUID accountId, Supplier<T> operation) {
+        AccountGate gate = accountGates.compute(accountId, (k, v) -> {
+            AccountGate acquired = v == null ? new AccountGate(perAccountLimit) : v;
+            acquired.users++;
+            return acquired;
+        });
+        try {
+            if (!tryAcquire(gate.permits)) {
+                accountRejections.increment();
+                throw new AccountOverloadedException("Too many operations in progress on account " + accountId + ", please retry later", retryAfterSeconds);
+            }
+            try {
+                if (!tryAcquire(globalPermits)) {
+                    globalRejections.increment();
+                    throw new AccountOverloadedException("Too many operations in progress, please retry later", retryAfterSeconds);
+                }
+                try {
+                    return operation.get();
+                } finally {
+                    globalPermits.release();
+                }
+            } finally {
+                gate.permits.release();
+            }
+        } finally {
+            accountGates.computeIfPresent(accountId, (k, v) -> --v.users == 0 ? null : v);
+        }
+    }
+
+    private boolean tryAcquire(Semaphore permits) {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (queueTimeoutMs <= 0) {
+            return false;
+        }
+        try {
+            return permits.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static final class AccountGate {
+        private final Semaphore permits;
+        // guarded by the bin lock of accountGates
+        private int users;
+
+        private AccountGate(int limit) {
+            this.permits = new Semaphore(limit, true);
+        }
+    }
+}
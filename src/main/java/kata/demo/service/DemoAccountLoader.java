@@ -0,0 +1,77 @@
+package kata.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kata.demo.cluster.ClusterService;
+import kata.demo.dto.Account;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Loads the sample account of the demos at startup. It can be disabled, or loaded in the background so that it does not
+ * delay the startup, in which case the sample account is only found once it's loaded.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "account.demo-data.enabled", havingValue = "true", matchIfMissing = true)
+public class DemoAccountLoader {
+
+    private final AccountService accountService;
+    private final ObjectProvider<ClusterService> clusterService;
+    private final ObjectMapper objectMapper;
+    private final Resource accountDemo;
+    private final boolean async;
+
+    public DemoAccountLoader(AccountService accountService,
+                             ObjectProvider<ClusterService> clusterService,
+                             ObjectMapper objectMapper,
+                             @Value("classpath:sample/account_demo.json") Resource accountDemo,
+                             @Value("${account.demo-data.async:false}") boolean async) {
+        this.accountService = accountService;
+        this.clusterService = clusterService;
+        this.objectMapper = objectMapper;
+        this.accountDemo = accountDemo;
+        this.async = async;
+    }
+
+    @PostConstruct
+    private void start() {
+        if (!async) {
+            load();
+            return;
+        }
+        Thread loader = new Thread(() -> {
+            try {
+                load();
+            } catch (RuntimeException e) {
+                log.error("Could not load the sample account", e);
+            }
+        }, "demo-account-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void load() {
+        // read as a stream, the resource is not a file once packaged in the jar
+        try (InputStream json = accountDemo.getInputStream()) {
+            Account account = objectMapper.readValue(json, Account.class);
+            // in a cluster, the sample account is only kept by its owner
+            ClusterService cluster = clusterService.getIfAvailable();
+            if (cluster != null && !cluster.isLocal(account.getId())) {
+                return;
+            }
+            accountService.save(account);
+            log.info("Sample account {} loaded", account.getId());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the sample account " + accountDemo, e);
+        }
+    }
+}
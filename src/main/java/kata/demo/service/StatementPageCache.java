@@ -0,0 +1,180 @@
+package kata.demo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import kata.demo.dto.Account;
+import kata.demo.dto.Statement;
+import kata.demo.exception.AccountNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the rendered (already serialized) statement pages.
+ * Pages are kept per account and per version of the account, which is the account instance itself since every save or update
+ * replaces it with a new one, and all the pages of an account are dropped as soon as it's saved or a statement is appended to it.
+ * Only the pages of the current version are cached, a page rendered from a version replaced meanwhile is not.
+ * The cache is bounded by the total size of the pages, the least recently used accounts
+ * (approximated by sampling) being evicted first.
+ */
+@Service
+public class StatementPageCache implements AccountListener {
+
+    private static final int EVICTION_SAMPLES = 5;
+
+    private final Map<UUID, AccountPages> pagesByAccount = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final long maxBytes;
+    private final AccountService accountService;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public StatementPageCache(AccountService accountService,
+                              @Value("${account.statements.page-cache.max-bytes:16777216}") long maxBytes,
+                              MeterRegistry meterRegistry) {
+        this.accountService = accountService;
+        this.maxBytes = maxBytes;
+        this.hits = Counter.builder("account.statements.page-cache")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("account.statements.page-cache")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        meterRegistry.gauge("account.statements.page-cache.bytes", cachedBytes);
+    }
+
+    @PostConstruct
+    private void registerListener() {
+        accountService.addListener(this);
+    }
+
+    /**
+     * Get the rendered page of the account, rendering and caching it if it's not cached yet
+     *
+     * @param account  the account to print
+     * @param pageable the requested page
+     * @param renderer renders the page when it's not in the cache
+     * @return the rendered page
+     */
+    public byte[] get(Account account, Pageable pageable, Supplier<byte[]> renderer) {
+        PageKey key = new PageKey(pageable.getOffset(), pageable.getPageSize(), pageable.getSort().toString());
+        AccountPages pages = pagesByAccount.get(account.getId());
+        if (pages != null && pages.account == account) {
+            byte[] cached = pages.pages.get(key);
+            if (cached != null) {
+                pages.lastAccess = System.nanoTime();
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        byte[] rendered = renderer.get();
+        put(account, key, rendered);
+        return rendered;
+    }
+
+    private void put(Account account, PageKey key, byte[] rendered) {
+        pagesByAccount.compute(account.getId(), (k, v) -> {
+            AccountPages pages = v;
+            if (pages == null || pages.account != account) {
+                // the account is replaced before its pages are invalidated, so a replaced version is never cached again
+                if (!isCurrent(account)) {
+                    return v;
+                }
+                if (pages != null) {
+                    cachedBytes.addAndGet(-pages.bytes);
+                }
+                pages = new AccountPages(account);
+            }
+            if (pages.pages.putIfAbsent(key, rendered) == null) {
+                pages.bytes += rendered.length;
+                cachedBytes.addAndGet(rendered.length);
+            }
+            return pages;
+        });
+        while (cachedBytes.get() > maxBytes && !pagesByAccount.isEmpty()) {
+            evictOne();
+        }
+    }
+
+    private boolean isCurrent(Account account) {
+        try {
+            return accountService.findById(account.getId()) == account;
+        } catch (AccountNotFoundException e) {
+            return false;
+        }
+    }
+
+    private void evictOne() {
+        // sampled LRU: among a few accounts taken from a random position, evict the least recently accessed one
+        int skip = ThreadLocalRandom.current().nextInt(Math.max(1, pagesByAccount.size() - EVICTION_SAMPLES));
+        Iterator<Map.Entry<UUID, AccountPages>> iterator = pagesByAccount.entrySet().iterator();
+        Map.Entry<UUID, AccountPages> oldest = null;
+        for (int i = 0; iterator.hasNext() && i < skip + EVICTION_SAMPLES; i++) {
+            Map.Entry<UUID, AccountPages> entry = iterator.next();
+            if (i >= skip && (oldest == null || entry.getValue().lastAccess < oldest.getValue().lastAccess)) {
+                oldest = entry;
+            }
+        }
+        if (oldest != null) {
+            invalidate(oldest.getKey());
+        }
+    }
+
+    /**
+     * Drop all the cached pages of the account
+     *
+     * @param accountId the account id
+     */
+    public void invalidate(UUID accountId) {
+        AccountPages removed = pagesByAccount.remove(accountId);
+        if (removed != null) {
+            cachedBytes.addAndGet(-removed.bytes);
+        }
+    }
+
+    @Override
+    public void onAccountSaved(Account account) {
+        invalidate(account.getId());
+    }
+
+    @Override
+    public void onAccountRemoved(Account account) {
+        invalidate(account.getId());
+    }
+
+    @Override
+    public void onStatementAppended(Account account, Statement statement) {
+        invalidate(account.getId());
+    }
+
+    @lombok.Value
+    private static class PageKey {
+        long offset;
+        int size;
+        String sort;
+    }
+
+    private static final class AccountPages {
+        private final Account account;
+        private final Map<PageKey, byte[]> pages = new ConcurrentHashMap<>();
+        // guarded by the bin lock of pagesByAccount
+        private long bytes;
+        private volatile long lastAccess = System.nanoTime();
+
+        private AccountPages(Account account) {
+            this.account = account;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package kata.demo.service;
+
+import kata.demo.dto.Account;
+import kata.demo.dto.Statement;
+import kata.demo.dto.StatementPrinting;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+@Service
+public class StatementPrinter {
+
+    /**
+     * Print a page of the statements of the account
+     *
+     * @param account  the account to print
+     * @param pageable the requested page, which can only be sorted by date
+     * @return the page of statements
+     */
+    public StatementPrinting print(Account account, Pageable pageable) {
+        // FIXME this kind of pagination should be done with Spring REST repository
+        // sort a copy, the statements of the account are shared with the other readers
+        List<Statement> statements = new ArrayList<>(account.getStatements());
+
+        Optional<Sort.Order> order = pageable.getSort().stream().findFirst();
+        if (order.isPresent()) {
+            if (order.get().getProperty().equals("date")) {
+                if (order.get().getDirection() == Sort.Direction.ASC) {
+                    statements.sort(Comparator.comparing(Statement::getDate));
+                } else {
+                    statements.sort((o1, o2) -> o2.getDate().compareTo(o1.getDate()));
+                }
+            }
+        }
+        // a page after the last one is empty
+        int start = (int) Math.min(pageable.getOffset(), statements.size());
+        int end = Math.min((start + pageable.getPageSize()), statements.size());
+        Page<Statement> page
+                = new PageImpl<>(statements.subList(start, end), pageable, statements.size());
+        return StatementPrinting.builder()
+                .accountBalance(account.getBalance())
+                .statements(page.getContent())
+                .currentPage(page.getNumber())
+                .totalStatements(page.getTotalElements())
+                .totalPages(page.getTotalPages())
+                .snapshot(account.getStatements().size())
+                .build();
+    }
+}
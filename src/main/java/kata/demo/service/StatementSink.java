@@ -0,0 +1,30 @@
+package kata.demo.service;
+
+import kata.demo.dto.Statement;
+
+import java.io.IOException;
+
+/**
+ * A consumer of the statements streamed by {@link StatementStreamService}
+ */
+public interface StatementSink {
+
+    /**
+     * Send a statement to the consumer
+     *
+     * @param eventId   id of the event, to resume from: the version of the account once the statement is applied and a fingerprint of the statement
+     * @param statement the statement
+     * @throws IOException if the consumer is gone
+     */
+    void send(String eventId, Statement statement) throws IOException;
+
+    /**
+     * Close the stream because the consumer is too late, it has to resume from the last event it received
+     */
+    void overflow();
+
+    /**
+     * Close the stream without writing to the consumer, which doesn't read it
+     */
+    void abort();
+}
@@ -0,0 +1,126 @@
+package kata.demo.service;
+
+import kata.demo.dto.Account;
+import kata.demo.exception.SnapshotExpiredException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The versions of the accounts being printed, so that all the pages of a printing come from the same version.
+ * A snapshot is the account at this version, whose statements share the storage of the later versions, so retaining it costs
+ * almost nothing. Only the latest snapshots of an account are retained, for a limited time.
+ */
+@Service
+public class StatementSnapshots implements AccountListener {
+
+    private final AccountService accountService;
+    private final int maxPerAccount;
+    private final long ttlMs;
+
+    private final Map<UUID, Snapshots> snapshotsByAccount = new ConcurrentHashMap<>();
+
+    public StatementSnapshots(AccountService accountService,
+                              @Value("${account.statements.snapshot.max-per-account:8}") int maxPerAccount,
+                              @Value("${account.statements.snapshot.ttl-ms:300000}") long ttlMs) {
+        this.accountService = accountService;
+        this.maxPerAccount = maxPerAccount;
+        this.ttlMs = ttlMs;
+    }
+
+    @PostConstruct
+    private void registerListener() {
+        accountService.addListener(this);
+    }
+
+    /**
+     * Retain the current version of the account
+     *
+     * @param account the account
+     * @return the snapshot token, the version of the account
+     */
+    public long register(Account account) {
+        long version = account.getStatements().size();
+        snapshotsByAccount.computeIfAbsent(account.getId(), k -> new Snapshots())
+                .put(version, account, System.currentTimeMillis());
+        return version;
+    }
+
+    /**
+     * @param accountId the account id
+     * @param snapshot  the snapshot token
+     * @return the account at the version of the snapshot
+     * @throws SnapshotExpiredException if the snapshot is not retained anymore
+     */
+    public Account get(UUID accountId, long snapshot) {
+        Snapshots snapshots = snapshotsByAccount.get(accountId);
+        Account account = snapshots == null ? null : snapshots.get(snapshot, System.currentTimeMillis() - ttlMs);
+        if (account == null) {
+            throw new SnapshotExpiredException(accountId, snapshot);
+        }
+        return account;
+    }
+
+    @Scheduled(fixedDelayString = "${account.statements.snapshot.ttl-ms:300000}")
+    void expire() {
+        long expiredBefore = System.currentTimeMillis() - ttlMs;
+        snapshotsByAccount.forEach((id, snapshots) ->
+                snapshotsByAccount.computeIfPresent(id, (k, v) -> v.expire(expiredBefore) ? null : v));
+    }
+
+    @Override
+    public void onAccountSaved(Account account) {
+        // the account is replaced, its previous versions are not its history anymore
+        snapshotsByAccount.remove(account.getId());
+    }
+
+    @Override
+    public void onAccountRemoved(Account account) {
+        snapshotsByAccount.remove(account.getId());
+    }
+
+    private final class Snapshots {
+        // in registration order, the oldest first
+        private final LinkedHashMap<Long, Snapshot> byVersion = new LinkedHashMap<>();
+
+        private synchronized void put(long version, Account account, long now) {
+            byVersion.remove(version);
+            byVersion.put(version, new Snapshot(account, now));
+            if (byVersion.size() > maxPerAccount) {
+                Iterator<Long> oldest = byVersion.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+
+        private synchronized Account get(long version, long expiredBefore) {
+            Snapshot snapshot = byVersion.get(version);
+            return snapshot == null || snapshot.registeredAt < expiredBefore ? null : snapshot.account;
+        }
+
+        /**
+         * @return true if no snapshot is retained anymore
+         */
+        private synchronized boolean expire(long expiredBefore) {
+            byVersion.values().removeIf(snapshot -> snapshot.registeredAt < expiredBefore);
+            return byVersion.isEmpty();
+        }
+    }
+
+    private static final class Snapshot {
+        private final Account account;
+        private final long registeredAt;
+
+        private Snapshot(Account account, long registeredAt) {
+            this.account = account;
+            this.registeredAt = registeredAt;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package kata.demo.service;
+
+import kata.demo.dto.Account;
+import kata.demo.dto.Statement;
+import kata.demo.exception.AccountNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pushes the statements of an account to its subscribers as they are appended.
+ * The appended statements are written in a ring buffer per account, from which each subscriber is fed by its own drain task,
+ * so that the writers never wait for the subscribers. A subscriber resuming from an event which is not in the ring buffer anymore
+ * is fed from the statements of the account, and a live subscriber falling too far behind the writers is disconnected.
+ * The drain tasks hand the events to the subscriber on a separate bounded pool and wait for them a bounded time only, so that a client
+ * which doesn't read its stream is disconnected rather than holding a drain thread and stalling the other subscribers. Nothing is
+ * written to such a client anymore: its stream is closed as soon as its pending write returns, so it holds one writer thread at most.
+ * The id of an event is the version of the account followed by a fingerprint of its statement, so that a subscriber resuming
+ * from an event of an account replaced since then, on this node or on another one, is fed the account from its first statement.
+ */
+@Slf4j
+@Service
+public class StatementStreamService implements AccountListener {
+
+    private static final int MAX_BATCH = 64;
+
+    private final AccountService accountService;
+    private final int ringCapacity;
+    private final long maxLag;
+    private final long sendTimeoutMs;
+    private final ExecutorService senders;
+    private final ExecutorService writers;
+
+    private final Map<UUID, AccountStream> streams = new ConcurrentHashMap<>();
+
+    public StatementStreamService(AccountService accountService,
+                                  @Value("${account.statements.stream.ring-capacity:1024}") int ringCapacity,
+                                  @Value("${account.statements.stream.max-lag:10000}") long maxLag,
+                                  @Value("${account.statements.stream.sender-threads:4}") int senderThreads,
+                                  @Value("${account.statements.stream.writer-threads:16}") int writerThreads,
+                                  @Value("${account.statements.stream.send-timeout-ms:5000}") long sendTimeoutMs) {
+        this.accountService = accountService;
+        this.ringCapacity = ringCapacity;
+        this.maxLag = maxLag;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.senders = Executors.newFixedThreadPool(senderThreads, daemon("statement-stream"));
+        // a write blocked on a client which doesn't read its stream holds a thread until the connection times out
+        this.writers = Executors.newFixedThreadPool(writerThreads, daemon("statement-stream-writer"));
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PostConstruct
+    private void registerListener() {
+        accountService.addListener(this);
+    }
+
+    @PreDestroy
+    void stop() {
+        senders.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    /**
+     * Subscribe to the statements appended to the account
+     *
+     * @param accountId   the account id
+     * @param lastEventId the last event received by the subscriber, to resume from; null to only receive the next statements
+     * @param sink        the subscriber
+     * @return a handle to cancel the subscription
+     */
+    public Runnable subscribe(UUID accountId, String lastEventId, StatementSink sink) {
+        // registered with its stream at once, so that the stream is not dropped meanwhile by the last subscriber leaving it
+        Subscriber[] registered = new Subscriber[1];
+        streams.compute(accountId, (k, v) -> {
+            AccountStream stream = v == null ? new AccountStream(ringCapacity) : v;
+            registered[0] = new Subscriber(accountId, stream, sink);
+            stream.subscribers.add(registered[0]);
+            return stream;
+        });
+        Subscriber subscriber = registered[0];
+        // read once registered, so that a statement appended meanwhile is either in the account read or pushed to the stream
+        Account account;
+        try {
+            account = accountService.findById(accountId);
+        } catch (AccountNotFoundException e) {
+            unsubscribe(subscriber);
+            throw e;
+        }
+        subscriber.stream.latest.accumulateAndGet(account.getStatements().size(), Math::max);
+        subscriber.start(lastEventId != null ? resumeFrom(lastEventId, account.getStatements()) : account.getStatements().size());
+        return () -> unsubscribe(subscriber);
+    }
+
+    @Override
+    public void onAccountSaved(Account account) {
+        // the statements were replaced, the subscribers resume from their last event, which may not be in the new statements
+        disconnectAll(account);
+    }
+
+    @Override
+    public void onStatementAppended(Account account, Statement statement) {
+        AccountStream stream = streams.get(account.getId());
+        // nobody listens to this account
+        if (stream == null) {
+            return;
+        }
+        long version = account.getStatements().size();
+        stream.ring.set((int) (version % ringCapacity), new StatementEvent(version, statement));
+        stream.latest.accumulateAndGet(version, Math::max);
+        stream.subscribers.forEach(Subscriber::schedule);
+    }
+
+    @Override
+    public void onAccountRemoved(Account account) {
+        // the subscribers resume from the node now owning the account
+        disconnectAll(account);
+    }
+
+    private void disconnectAll(Account account) {
+        AccountStream stream = streams.remove(account.getId());
+        if (stream != null) {
+            stream.subscribers.forEach(Subscriber::disconnect);
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        subscriber.closed = true;
+        subscriber.stream.subscribers.remove(subscriber);
+        streams.computeIfPresent(subscriber.accountId, (k, v) -> v.subscribers.isEmpty() ? null : v);
+    }
+
+    private static String eventId(long version, Statement statement) {
+        return version + "-" + fingerprint(statement);
+    }
+
+    /**
+     * @return the version to resume from after the event, or 0 to start again from the first statement if the event is not
+     * one of the statements of the account
+     */
+    private static long resumeFrom(String lastEventId, List<Statement> statements) {
+        int separator = lastEventId.indexOf('-');
+        long version;
+        try {
+            version = Long.parseLong(separator < 0 ? lastEventId : lastEventId.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        if (version <= 0 || version > statements.size()) {
+            return 0;
+        }
+        return lastEventId.equals(eventId(version, statements.get((int) (version - 1)))) ? version : 0;
+    }
+
+    /**
+     * @return a hash of the statement which survives its serialization, so that it's the same on every node
+     */
+    private static String fingerprint(Statement statement) {
+        LocalDateTime date = statement.getDate();
+        BigDecimal amount = statement.getAmount();
+        return Integer.toHexString(Objects.hash(
+                date == null ? null : date.truncatedTo(ChronoUnit.SECONDS).toString(),
+                statement.getType() == null ? null : statement.getType().name(),
+                amount == null ? null : amount.stripTrailingZeros().toPlainString()));
+    }
+
+    private static final class StatementEvent {
+        private final long id;
+        private final Statement statement;
+
+        private StatementEvent(long id, Statement statement) {
+            this.id = id;
+            this.statement = statement;
+        }
+    }
+
+    private static final class AccountStream {
+        private final AtomicReferenceArray<StatementEvent> ring;
+        private final AtomicLong latest = new AtomicLong();
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+        private AccountStream(int capacity) {
+            this.ring = new AtomicReferenceArray<>(capacity);
+        }
+    }
+
+    private final class Subscriber {
+        private final UUID accountId;
+        private final AccountStream stream;
+        private final StatementSink sink;
+        // held until the subscriber is started, so that it's not fed before it knows where to start from
+        private final AtomicBoolean scheduled = new AtomicBoolean(true);
+        private final AtomicBoolean released = new AtomicBoolean();
+        // a batch is being handed to the sink
+        private volatile boolean sending;
+        private volatile boolean overflow;
+        // only read and written by the drain task, which never runs twice at the same time, once started
+        private long cursor;
+        private boolean live;
+        private volatile boolean closed;
+
+        private Subscriber(UUID accountId, AccountStream stream, StatementSink sink) {
+            this.accountId = accountId;
+            this.stream = stream;
+            this.sink = sink;
+        }
+
+        private void start(long from) {
+            cursor = from;
+            scheduled.set(false);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!closed && scheduled.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        /**
+         * Tell the subscriber it's too late and close its stream, without waiting for it
+         */
+        private void disconnect() {
+            close(true);
+        }
+
+        /**
+         * Close the stream of a subscriber which doesn't read it, without writing to it anymore
+         */
+        private void abort() {
+            close(false);
+        }
+
+        private void close(boolean overflow) {
+            this.overflow = overflow;
+            unsubscribe(this);
+            // otherwise the stream is released by the pending write once it returns, rather than by another writer waiting for it
+            if (!sending) {
+                release();
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                writers.execute(overflow ? sink::overflow : sink::abort);
+            }
+        }
+
+        private void drain() {
+            try {
+                List<Statement> history = List.of();
+                long target = stream.latest.get();
+                while (!closed && cursor < target) {
+                    if (live && target - cursor > maxLag) {
+                        // too late, feeding it from the statements of the account instead of the ring buffer would slow down the other subscribers
+                        log.info("Subscriber of account {} is {} statements late, disconnecting it", accountId, target - cursor);
+                        disconnect();
+                        return;
+                    }
+                    List<StatementEvent> batch = new ArrayList<>(Math.min(MAX_BATCH, (int) (target - cursor)));
+                    for (long eventId = cursor + 1; eventId <= target && batch.size() < MAX_BATCH; eventId++) {
+                        StatementEvent event = stream.ring.get((int) (eventId % ringCapacity));
+                        if (event == null || event.id != eventId) {
+                            // appended before anybody subscribed, or resuming from an old event
+                            if (eventId > history.size()) {
+                                history = accountService.findById(accountId).getStatements();
+                            }
+                            if (eventId > history.size()) {
+                                // not visible yet, the drain is scheduled again once it's appended
+                                break;
+                            }
+                            event = new StatementEvent(eventId, history.get((int) (eventId - 1)));
+                        }
+                        batch.add(event);
+                    }
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    send(batch);
+                    cursor = batch.get(batch.size() - 1).id;
+                    live = live || cursor >= target;
+                    target = stream.latest.get();
+                }
+                live = live || cursor >= target;
+            } catch (IOException | AccountNotFoundException e) {
+                log.debug("Subscriber of account {} is gone: {}", accountId, e.getMessage());
+                unsubscribe(this);
+            } catch (TimeoutException e) {
+                log.info("Subscriber of account {} didn't read its stream in {} ms, disconnecting it", accountId, sendTimeoutMs);
+                abort();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                unsubscribe(this);
+            } finally {
+                scheduled.set(false);
+            }
+            // a statement may have been appended after the last check
+            if (!closed && cursor < stream.latest.get()) {
+                schedule();
+            }
+        }
+
+        private void send(List<StatementEvent> batch) throws IOException, TimeoutException, InterruptedException {
+            sending = true;
+            Future<?> sent = writers.submit(() -> {
+                try {
+                    for (StatementEvent event : batch) {
+                        if (closed) {
+                            return null;
+                        }
+                        sink.send(eventId(event.id, event.statement), event.statement);
+                    }
+                    return null;
+                } finally {
+                    sending = false;
+                    if (closed) {
+                        release();
+                    }
+                }
+            });
+            try {
+                sent.get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException("Could not send the statements of account " + accountId, e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package kata.demo.service;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * Generates time-ordered ids, following the layout of the version 7 UUIDs: the first 48 bits are the creation time in milliseconds,
+ * and the remaining ones are random. The ids created in different milliseconds are ordered by creation time, which keeps them
+ * close to each other in any ordered index or file.
+ * The id of an account is all it takes to read or update it, so the random bits come from a cryptographically strong generator,
+ * as those of {@link UUID#randomUUID()} do, but from one per thread so that the concurrent creations do not contend on it.
+ */
+public class TimeOrderedIdGenerator implements AccountIdGenerator {
+
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000000000000000L;
+    private static final int RANDOM_BYTES = 10;
+
+    // each instance has its own state, seeded from the system entropy on first use, unlike the default NativePRNG ones
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(() -> {
+        try {
+            return SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA1PRNG secure random generator", e);
+        }
+    });
+
+    @Override
+    public UUID nextId() {
+        byte[] random = new byte[RANDOM_BYTES];
+        RANDOM.get().nextBytes(random);
+        long mostSignificantBits = (System.currentTimeMillis() << 16) | VERSION | ((random[0] & 0x0FL) << 8) | (random[1] & 0xFFL);
+        long leastSignificantBits = 0;
+        for (int i = 2; i < RANDOM_BYTES; i++) {
+            leastSignificantBits = (leastSignificantBits << 8) | (random[i] & 0xFFL);
+        }
+        leastSignificantBits = VARIANT | (leastSignificantBits & 0x3FFFFFFFFFFFFFFFL);
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+}
@@ -0,0 +1,39 @@
+package kata.demo.service;
+
+import java.util.UUID;
+
+/**
+ * Observes a sample of the updates of the accounts, to diagnose the contention in the update path
+ */
+public interface UpdateProbe {
+
+    /**
+     * Probe observing nothing
+     */
+    UpdateProbe NONE = new UpdateProbe() {
+        @Override
+        public boolean sample() {
+            return false;
+        }
+
+        @Override
+        public void sampled(UUID accountId, long waitNanos, long lockNanos) {
+        }
+    };
+
+    /**
+     * Called on every update, so it must be cheap
+     *
+     * @return true if the update has to be observed
+     */
+    boolean sample();
+
+    /**
+     * Called after an observed update, out of the lock of the account
+     *
+     * @param accountId the updated account
+     * @param waitNanos time spent waiting for the lock of the account
+     * @param lockNanos time spent holding the lock of the account
+     */
+    void sampled(UUID accountId, long waitNanos, long lockNanos);
+}
@@ -0,0 +1,20 @@
+package kata.demo;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A test measuring the performance of the service. The benchmarks are slow, so they are left out of the default build
+ * and only run with the benchmark profile: {@code mvn test -Pbenchmark}
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Tag("benchmark")
+@Test
+public @interface Benchmark {
+}
@@ -0,0 +1,112 @@
+package kata.demo;
+
+import org.junit.jupiter.api.DisplayName;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures the time to first request of a new instance, with the default and the prod profiles.
+ * Every run starts a new JVM, like an instance started when scaling out, and measures the time until an account is created.
+ * The prod profile is also measured with the JVM only compiling with C1, which is recommended to start fast.
+ * It starts 9 JVMs one after the other, so it's a {@link Benchmark}.
+ */
+class StartupTimeTest {
+
+    private static final int RUNS = 3;
+    private static final long TIMEOUT_MS = 120_000;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    @Benchmark
+    @DisplayName("Benchmark the time to first request with the default and the prod profiles")
+    void benchmarkTimeToFirstRequest() throws Exception {
+        List<Long> defaultRuns = new ArrayList<>();
+        List<Long> prodRuns = new ArrayList<>();
+        List<Long> prodC1Runs = new ArrayList<>();
+        // alternated, so that every variant sees the same conditions
+        for (int run = 0; run < RUNS; run++) {
+            defaultRuns.add(timeToFirstRequest("default"));
+            prodRuns.add(timeToFirstRequest("prod"));
+            prodC1Runs.add(timeToFirstRequest("prod", "-XX:TieredStopAtLevel=1"));
+        }
+        String runs = String.format("default profile %s ms, prod profile %s ms, prod profile with C1 only %s ms", defaultRuns, prodRuns, prodC1Runs);
+        assertTrue(median(prodRuns) < median(defaultRuns), runs);
+        // C1 only is reported rather than asserted, whether it starts faster depends on the machine
+        System.out.printf("Time to first request, median of %d runs: default profile %d ms, prod profile %d ms, prod profile with C1 only %d ms%n",
+                RUNS, median(defaultRuns), median(prodRuns), median(prodC1Runs));
+    }
+
+    private long timeToFirstRequest(String profile, String... jvmOptions) throws Exception {
+        int port = freePort();
+        Path log = Files.createTempFile("startup-" + profile, ".log");
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        Collections.addAll(command, jvmOptions);
+        Collections.addAll(command, "-cp", System.getProperty("java.class.path"),
+                DemoApplication.class.getName(),
+                "--server.port=" + port,
+                "--spring.profiles.active=" + profile);
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        long start = System.nanoTime();
+        try {
+            HttpRequest createAccount = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/account"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"type\":\"CHECKING\",\"balance\":0,\"statements\":[]}"))
+                    .build();
+            while (true) {
+                assertTrue(process.isAlive(), () -> "The instance stopped, see " + log);
+                assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS), () -> "The instance did not start, see " + log);
+                try {
+                    HttpResponse<String> response = client.send(createAccount, HttpResponse.BodyHandlers.ofString());
+                    assertEquals(201, response.statusCode(), response::body);
+                    long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    // the log is only kept when the instance failed to start
+                    Files.delete(log);
+                    return durationMs;
+                } catch (ConnectException e) {
+                    // not listening yet
+                    Thread.sleep(10);
+                }
+            }
+        } finally {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private static long median(List<Long> runs) {
+        List<Long> sorted = new ArrayList<>(runs);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
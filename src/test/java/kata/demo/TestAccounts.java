@@ -0,0 +1,78 @@
+package kata.demo;
+
+import kata.demo.dto.Account;
+import kata.demo.dto.AccountType;
+import kata.demo.dto.Statement;
+import kata.demo.dto.StatementType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The accounts and statements used by the tests
+ */
+public final class TestAccounts {
+
+    private TestAccounts() {
+    }
+
+    /**
+     * @return a new empty checking account, without id
+     */
+    public static Account anAccount() {
+        return anAccount(AccountType.CHECKING, BigDecimal.ZERO);
+    }
+
+    /**
+     * @return a new account without statements nor id
+     */
+    public static Account anAccount(AccountType type, BigDecimal balance) {
+        return Account.builder()
+                .type(type)
+                .balance(balance)
+                .statements(List.of())
+                .build();
+    }
+
+    /**
+     * @return a checking account with deposits of 1, one minute apart from the 1st of January 2022
+     */
+    public static Account anAccountWithDeposits(UUID id, int deposits) {
+        List<Statement> statements = new ArrayList<>();
+        LocalDateTime date = LocalDateTime.of(2022, 1, 1, 0, 0);
+        for (int i = 0; i < deposits; i++) {
+            statements.add(aStatement(StatementType.DEPOSIT, 1, date.plusMinutes(i)));
+        }
+        return Account.builder()
+                .id(id)
+                .type(AccountType.CHECKING)
+                .balance(BigDecimal.valueOf(deposits))
+                .statements(statements)
+                .build();
+    }
+
+    /**
+     * @return a deposit made now
+     */
+    public static Statement aDeposit(int amount) {
+        return aStatement(StatementType.DEPOSIT, amount);
+    }
+
+    /**
+     * @return a statement made now
+     */
+    public static Statement aStatement(StatementType type, int amount) {
+        return aStatement(type, amount, LocalDateTime.now());
+    }
+
+    public static Statement aStatement(StatementType type, int amount, LocalDateTime date) {
+        return Statement.builder()
+                .date(date)
+                .type(type)
+                .amount(BigDecimal.valueOf(amount))
+                .build();
+    }
+}
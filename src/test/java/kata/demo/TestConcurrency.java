@@ -0,0 +1,84 @@
+package kata.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The helpers of the tests running tasks concurrently and of the benchmarks comparing two ways of doing the same thing
+ */
+public final class TestConcurrency {
+
+    private TestConcurrency() {
+    }
+
+    /**
+     * Run the task on several threads at once, and wait for all of them
+     *
+     * @throws AssertionError if a task failed
+     */
+    public static void runConcurrently(int threads, Runnable task) throws InterruptedException {
+        runConcurrently(Collections.nCopies(threads, task));
+    }
+
+    /**
+     * Run each task on its own thread, all started at once, and wait for all of them
+     *
+     * @throws AssertionError if a task failed
+     */
+    public static void runConcurrently(List<? extends Runnable> tasks) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (Runnable task : tasks) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } catch (ExecutionException e) {
+            throw new AssertionError("A concurrent task failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new AssertionError("A concurrent task didn't end in time", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Measure two ways of doing the same thing alternately, so that neither gets all the warm up nor all the noise of the machine,
+     * and compare each run of the second way with the run of the first way just before it. A first run of each warms them up
+     * and is not compared
+     *
+     * @param runs   the number of runs of each
+     * @param first  a run of the first way, returning its throughput
+     * @param second a run of the second way, returning its throughput
+     * @return the median of the throughput of the second way relative to the first way
+     */
+    public static double medianRatioOfAlternatingRuns(int runs, Callable<Double> first, Callable<Double> second) throws Exception {
+        first.call();
+        second.call();
+        double[] ratios = new double[runs];
+        for (int run = 0; run < runs; run++) {
+            double firstThroughput = first.call();
+            ratios[run] = second.call() / firstThroughput;
+        }
+        Arrays.sort(ratios);
+        return runs % 2 == 1 ? ratios[runs / 2] : (ratios[runs / 2 - 1] + ratios[runs / 2]) / 2;
+    }
+}
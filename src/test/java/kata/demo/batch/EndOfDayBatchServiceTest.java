@@ -0,0 +1,215 @@
+package kata.demo.batch;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kata.demo.Benchmark;
+import kata.demo.dto.Account;
+import kata.demo.dto.AccountType;
+import kata.demo.dto.BatchReport;
+import kata.demo.dto.Statement;
+import kata.demo.dto.StatementType;
+import kata.demo.exception.ReadOnlyReplicaException;
+import kata.demo.service.AccountService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static kata.demo.TestAccounts.aDeposit;
+import static kata.demo.TestAccounts.anAccount;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EndOfDayBatchServiceTest {
+
+    private static final LocalDate BUSINESS_DATE = LocalDate.of(2022, 1, 31);
+
+    @TempDir
+    Path checkpointDir;
+
+    private final AccountService accountService = new AccountService();
+
+    @Test
+    @DisplayName("Apply interest to the savings accounts only, once per business date")
+    void testInterest() {
+        Account savings = accountService.save(anAccount(AccountType.SAVINGS, BigDecimal.valueOf(36500)));
+        Account checking = accountService.save(anAccount(AccountType.CHECKING, BigDecimal.valueOf(36500)));
+        EndOfDayBatchService batch = aBatch(10);
+
+        BatchReport report = batch.run(BatchJob.INTEREST, BUSINESS_DATE);
+        assertEquals(1, report.getAppliedStatements());
+        // 2% of 36500 over the 365 days of the year
+        assertEquals(new BigDecimal("36502.00"), accountService.findById(savings.getId()).getBalance());
+        assertEquals(StatementType.INTEREST, accountService.findById(savings.getId()).getStatements().get(0).getType());
+        assertEquals(0, accountService.findById(checking.getId()).getStatements().size());
+
+        // running the job again for the same business date applies nothing
+        assertEquals(0, aBatch(10).run(BatchJob.INTEREST, BUSINESS_DATE).getAppliedStatements());
+        assertEquals(1, accountService.findById(savings.getId()).getStatements().size());
+    }
+
+    @Test
+    @DisplayName("Charge the fee to the checking accounts without making their balance negative")
+    void testFee() {
+        Account rich = accountService.save(anAccount(AccountType.CHECKING, BigDecimal.TEN));
+        Account poor = accountService.save(anAccount(AccountType.CHECKING, BigDecimal.ONE));
+        Account empty = accountService.save(anAccount(AccountType.CHECKING, BigDecimal.ZERO));
+
+        BatchReport report = aBatch(10).run(BatchJob.FEE, BUSINESS_DATE);
+        assertEquals(2, report.getAppliedStatements());
+        assertEquals(new BigDecimal("8.00"), accountService.findById(rich.getId()).getBalance());
+        assertEquals(BigDecimal.ZERO, accountService.findById(poor.getId()).getBalance());
+        assertEquals(0, accountService.findById(empty.getId()).getStatements().size());
+    }
+
+    @Test
+    @DisplayName("Charge the fee once per month, whatever the business date and the order of the statements")
+    void testFeeOncePerMonth() {
+        Account account = accountService.save(anAccount(AccountType.CHECKING, BigDecimal.TEN));
+
+        assertEquals(1, aBatch(10).run(BatchJob.FEE, LocalDate.of(2022, 1, 15)).getAppliedStatements());
+        assertEquals(0, aBatch(10).run(BatchJob.FEE, BUSINESS_DATE).getAppliedStatements());
+        // a backdated deposit appended after the fee doesn't hide it
+        accountService.update(account.getId(), Statement.builder()
+                .date(LocalDateTime.of(2021, 12, 1, 10, 0))
+                .type(StatementType.DEPOSIT)
+                .amount(BigDecimal.ONE)
+                .build());
+        assertEquals(0, aBatch(10).run(BatchJob.FEE, LocalDate.of(2022, 1, 20)).getAppliedStatements());
+        assertEquals(1, aBatch(10).run(BatchJob.FEE, LocalDate.of(2022, 2, 28)).getAppliedStatements());
+        assertEquals(new BigDecimal("7.00"), accountService.findById(account.getId()).getBalance());
+    }
+
+    @Test
+    @DisplayName("Don't pay the interest twice when a backdated statement was appended after it")
+    void testInterestAfterBackdatedStatement() {
+        Account account = accountService.save(anAccount(AccountType.SAVINGS, BigDecimal.valueOf(36500)));
+
+        assertEquals(1, aBatch(10).run(BatchJob.INTEREST, BUSINESS_DATE).getAppliedStatements());
+        accountService.update(account.getId(), Statement.builder()
+                .date(LocalDateTime.of(2022, 1, 2, 10, 0))
+                .type(StatementType.DEPOSIT)
+                .amount(BigDecimal.ONE)
+                .build());
+        assertEquals(0, aBatch(10).run(BatchJob.INTEREST, BUSINESS_DATE).getAppliedStatements());
+        assertEquals(2, accountService.findById(account.getId()).getStatements().size());
+    }
+
+    @Test
+    @DisplayName("Resume a run from its checkpoint, skipping the partitions already done")
+    void testResume() throws Exception {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            ids.add(accountService.save(anAccount(AccountType.SAVINGS, BigDecimal.valueOf(36500))).getId());
+        }
+        // a previous run of these accounts crashed after its first partition, made of the 10 smallest ids
+        List<UUID> sortedIds = ids.stream().sorted().collect(Collectors.toList());
+        Files.write(checkpointDir.resolve("INTEREST-" + BUSINESS_DATE + ".ids"),
+                sortedIds.stream().map(UUID::toString).collect(Collectors.toList()));
+        Files.writeString(checkpointDir.resolve("INTEREST-" + BUSINESS_DATE + ".done"), "0\n");
+        // the accounts created since then don't belong to the run and don't shift its partitions
+        List<UUID> created = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            created.add(accountService.save(anAccount(AccountType.SAVINGS, BigDecimal.valueOf(36500))).getId());
+        }
+
+        BatchReport report = aBatch(10).run(BatchJob.INTEREST, BUSINESS_DATE);
+        assertEquals(3, report.getPartitions());
+        assertEquals(1, report.getResumedPartitions());
+        assertEquals(20, report.getAppliedStatements());
+        sortedIds.subList(0, 10).forEach(id -> assertEquals(0, accountService.findById(id).getStatements().size()));
+        sortedIds.subList(10, 30).forEach(id -> assertEquals(1, accountService.findById(id).getStatements().size()));
+        created.forEach(id -> assertEquals(0, accountService.findById(id).getStatements().size()));
+    }
+
+    @Test
+    @DisplayName("Ignore the partitions done of a checkpoint without the accounts of its run")
+    void testCheckpointWithoutAccounts() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            accountService.save(anAccount(AccountType.SAVINGS, BigDecimal.valueOf(36500)));
+        }
+        Files.writeString(checkpointDir.resolve("INTEREST-" + BUSINESS_DATE + ".done"), "0\n");
+
+        BatchReport report = aBatch(10).run(BatchJob.INTEREST, BUSINESS_DATE);
+        assertEquals(0, report.getResumedPartitions());
+        assertEquals(30, report.getAppliedStatements());
+        assertTrue(Files.exists(checkpointDir.resolve("INTEREST-" + BUSINESS_DATE + ".ids")));
+    }
+
+    @Test
+    @DisplayName("Never run a job on a follower, its statements come from the leader")
+    void testFollower() {
+        Account savings = accountService.save(anAccount(AccountType.SAVINGS, BigDecimal.valueOf(36500)));
+        EndOfDayBatchService batch = new EndOfDayBatchService(accountService, new SimpleMeterRegistry(), new BigDecimal("0.02"),
+                new BigDecimal("2.00"), 10, 0, 0, 0, checkpointDir.toString(), "follower");
+
+        assertThrows(ReadOnlyReplicaException.class, () -> batch.run(BatchJob.INTEREST, BUSINESS_DATE));
+        batch.scheduledInterest();
+        assertEquals(0, accountService.findById(savings.getId()).getStatements().size());
+    }
+
+    @Benchmark
+    @DisplayName("Benchmark the interest job on many accounts, while they are used")
+    void benchmarkInterest() throws Exception {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            ids.add(accountService.save(anAccount(AccountType.SAVINGS, BigDecimal.valueOf(1000 + i))).getId());
+        }
+        // the live traffic, timed as the HTTP requests are
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Timer requests = Timer.builder("http.server.requests").tag("uri", "/account/{id}/statements").register(meterRegistry);
+        AtomicBoolean stopped = new AtomicBoolean();
+        ExecutorService foreground = Executors.newFixedThreadPool(2);
+        for (int i = 0; i < 2; i++) {
+            foreground.execute(() -> {
+                while (!stopped.get()) {
+                    UUID id = ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+                    requests.record(() -> accountService.update(id, aDeposit(1)));
+                }
+            });
+        }
+        BatchReport report;
+        try {
+            report = new EndOfDayBatchService(accountService, meterRegistry, new BigDecimal("0.02"), new BigDecimal("2.00"),
+                    1000, 0, 0, 500, checkpointDir.toString(), "").run(BatchJob.INTEREST, BUSINESS_DATE);
+        } finally {
+            stopped.set(true);
+            foreground.shutdown();
+            assertTrue(foreground.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(100_000, report.getAppliedStatements());
+        assertTrue(report.getAccountsPerSecond() > 20_000, "only " + report.getAccountsPerSecond() + " accounts/s");
+        // the impact of the run on the live traffic is measured against the window just before it
+        assertTrue(report.getForegroundRequestsBefore() > 0 && report.getForegroundRequestsDuring() > 0, report.toString());
+        assertTrue(report.getForegroundMeanLatencyMsBefore() > 0, report.toString());
+        // half of the cores are left to the live traffic, which slows down but is still served
+        assertTrue(report.getForegroundMeanLatencyMsDuring() < report.getForegroundMeanLatencyMsBefore() * 10, report.toString());
+
+        // a run resumed from a checkpoint of all its partitions only reads its checkpoint
+        BatchReport resumed = aBatch(1000).run(BatchJob.INTEREST, BUSINESS_DATE);
+        assertEquals(100, resumed.getResumedPartitions());
+        assertEquals(0, resumed.getAppliedStatements());
+        assertTrue(resumed.getDurationMs() * 2 < report.getDurationMs(),
+                "resumed in " + resumed.getDurationMs() + " ms, run in " + report.getDurationMs() + " ms");
+    }
+
+    private EndOfDayBatchService aBatch(int partitionSize) {
+        return new EndOfDayBatchService(accountService, new SimpleMeterRegistry(), new BigDecimal("0.02"), new BigDecimal("2.00"),
+                partitionSize, 0, 0, 0, checkpointDir.toString(), "");
+    }
+}
@@ -0,0 +1,171 @@
+package kata.demo.cluster;
+
+import kata.demo.DemoApplication;
+import kata.demo.service.AccountService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterTest {
+
+    private static final Pattern ID = Pattern.compile("\"id\":\"([0-9a-f-]+)\"");
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void stopNodes() {
+        executor.shutdownNow();
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    @DisplayName("Any node serves any account, and the accounts are moved when a node is added")
+    void testRoutingAndRebalancing() throws Exception {
+        int[] ports = {freePort(), freePort(), freePort()};
+        String first = "http://localhost:" + ports[0];
+        String second = "http://localhost:" + ports[1];
+        String third = "http://localhost:" + ports[2];
+        ConfigurableApplicationContext firstNode = startNode(ports[0], first + "," + second);
+        startNode(ports[1], first + "," + second);
+
+        List<UUID> accounts = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            HttpResponse<String> created = send("POST", (i % 2 == 0 ? first : second) + "/account",
+                    "{\"type\":\"CHECKING\",\"balance\":0,\"statements\":[]}");
+            assertEquals(201, created.statusCode());
+            Matcher id = ID.matcher(created.body());
+            assertTrue(id.find());
+            accounts.add(UUID.fromString(id.group(1)));
+        }
+        // a statement sent to any node is applied by the owner of the account
+        for (UUID account : accounts) {
+            assertEquals(201, send("POST", first + "/account/" + account + "/statements", "{\"type\":\"DEPOSIT\",\"amount\":5}").statusCode());
+            assertEquals(201, send("POST", second + "/account/" + account + "/statements", "{\"type\":\"DEPOSIT\",\"amount\":5}").statusCode());
+        }
+
+        // a client can't bypass the routing by pretending to be a node
+        for (UUID account : accounts) {
+            HttpResponse<String> found = client.send(HttpRequest.newBuilder(URI.create(first + "/account/" + account))
+                    .header(ClusterService.FORWARDED_HEADER, "http://localhost:1")
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, found.statusCode());
+        }
+
+        // a stream can't be forwarded, the client is redirected to the owner
+        for (UUID account : accounts) {
+            String owner = firstNode.getBean(ClusterService.class).ownerOf(account);
+            if (!owner.equals(first)) {
+                HttpResponse<String> stream = send("GET", first + "/account/" + account + "/statements/stream", null);
+                assertEquals(307, stream.statusCode());
+                assertEquals(owner + "/account/" + account + "/statements/stream", stream.headers().firstValue("Location").orElseThrow());
+            }
+        }
+
+        ConfigurableApplicationContext thirdNode = startNode(ports[2], first + "," + second + "," + third);
+        // the accounts are served by every node while they are moved
+        Map<UUID, Integer> deposits = new ConcurrentHashMap<>();
+        AtomicBoolean rebalanced = new AtomicBoolean();
+        Future<Integer> requests = executor.submit(() -> {
+            int sent = 0;
+            for (int i = 0; !rebalanced.get() || i < accounts.size(); i++) {
+                UUID account = accounts.get(i % accounts.size());
+                String node = List.of(first, second, third).get(i % 3);
+                assertEquals(201, send("POST", node + "/account/" + account + "/statements", "{\"type\":\"DEPOSIT\",\"amount\":1}").statusCode(),
+                        "Deposit on " + node + " during the rebalance");
+                deposits.merge(account, 1, Integer::sum);
+                assertEquals(200, send("GET", node + "/account/" + account, null).statusCode(), "Read on " + node + " during the rebalance");
+                sent++;
+            }
+            return sent;
+        });
+        HttpResponse<String> added = send("POST", first + "/cluster/nodes?url=" + URLEncoder.encode(third, StandardCharsets.UTF_8), "");
+        rebalanced.set(true);
+        assertEquals(200, added.statusCode());
+        assertTrue(requests.get(30, TimeUnit.SECONDS) >= accounts.size());
+        assertTrue(thirdNode.getBean(AccountService.class).findAll().size() > 0, "Some accounts are moved to the new node");
+
+        for (UUID account : accounts) {
+            for (String node : List.of(first, second, third)) {
+                HttpResponse<String> found = send("GET", node + "/account/" + account, null);
+                assertEquals(200, found.statusCode());
+                assertTrue(found.body().contains("\"balance\":" + (10 + deposits.getOrDefault(account, 0))), found.body());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("A node whose accounts can't be moved is not added, and the accounts stay where they are")
+    void testAddUnreachableNode() throws Exception {
+        int port = freePort();
+        String single = "http://localhost:" + port;
+        String unreachable = "http://localhost:" + freePort();
+        ConfigurableApplicationContext node = startNode(port, single);
+        List<UUID> accounts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            HttpResponse<String> created = send("POST", single + "/account", "{\"type\":\"CHECKING\",\"balance\":0,\"statements\":[]}");
+            Matcher id = ID.matcher(created.body());
+            assertTrue(id.find());
+            accounts.add(UUID.fromString(id.group(1)));
+        }
+
+        HttpResponse<String> added = send("POST", single + "/cluster/nodes?url=" + URLEncoder.encode(unreachable, StandardCharsets.UTF_8), "");
+        assertEquals(500, added.statusCode());
+        assertEquals(Set.of(single), node.getBean(ClusterService.class).getNodes());
+        for (UUID account : accounts) {
+            assertEquals(200, send("GET", single + "/account/" + account, null).statusCode());
+        }
+    }
+
+    private ConfigurableApplicationContext startNode(int port, String nodes) {
+        ConfigurableApplicationContext node = new SpringApplicationBuilder(DemoApplication.class)
+                .run("--server.port=" + port,
+                        "--account.cluster.self=http://localhost:" + port,
+                        "--account.cluster.nodes=" + nodes);
+        this.nodes.add(node);
+        return node;
+    }
+
+    private HttpResponse<String> send(String method, String url, String json) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .method(method, json == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(json));
+        if (json != null) {
+            request.header("Content-Type", "application/json");
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
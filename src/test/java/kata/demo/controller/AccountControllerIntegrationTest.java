@@ -1,5 +1,6 @@
 package kata.demo.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import kata.demo.dto.Account;
@@ -8,6 +9,7 @@ import kata.demo.dto.Statement;
 import kata.demo.dto.StatementType;
 import kata.demo.service.AccountService;
 import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -17,6 +19,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
@@ -26,6 +29,7 @@ import java.util.UUID;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(SpringExtension.class)
@@ -145,6 +149,142 @@ class AccountControllerIntegrationTest {
     }
 
 
+    @Test
+    @DisplayName("POST /account/batch - Success")
+    void testCreateAccounts() throws Exception {
+        List<Account> accounts = List.of(
+                Account.builder().type(AccountType.CHECKING).balance(BigDecimal.ZERO).build(),
+                Account.builder().type(AccountType.SAVINGS).balance(BigDecimal.TEN).build());
+        MvcResult result = mockMvc.perform(post("/account/batch")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(accounts)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[1].type").value("SAVINGS"))
+                .andReturn();
+        for (JsonNode created : objectMapper.readTree(result.getResponse().getContentAsString())) {
+            UUID id = UUID.fromString(created.get("id").asText());
+            // time-ordered ids by default
+            Assertions.assertEquals(7, id.version());
+            Assertions.assertEquals(created.get("type").asText(), accountService.findById(id).getType().name());
+        }
+    }
+
+    @Test
+    @DisplayName("POST /account/batch - Bad Request")
+    void testCreateAccountsBadRequest() throws Exception {
+        List<Account> invalid = List.of(
+                Account.builder().type(AccountType.CHECKING).balance(BigDecimal.ZERO).build(),
+                Account.builder().type(AccountType.CHECKING).build());
+        mockMvc.perform(post("/account/batch")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(invalid)))
+                .andExpect(status().isBadRequest());
+        List<Account> withId = List.of(
+                Account.builder().id(UUID.randomUUID()).type(AccountType.CHECKING).balance(BigDecimal.ZERO).build());
+        mockMvc.perform(post("/account/batch")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(withId)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("GET printStatements after a deposit /account/{id}/statements - Success")
+    void testPrintStatementsAfterDeposit() throws Exception {
+        Account account = populateAnAccountWithStatement();
+        mockMvc.perform(get("/account/" + account.getId() + "/statements"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalStatements").value(1));
+        Statement statement = Statement.builder()
+                .amount(BigDecimal.valueOf(11))
+                .type(StatementType.DEPOSIT)
+                .build();
+        mockMvc.perform(post("/account/" + account.getId() + "/statements")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(statement)))
+                .andExpect(status().isCreated());
+        mockMvc.perform(get("/account/" + account.getId() + "/statements"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalStatements").value(2))
+                .andExpect(jsonPath("$.accountBalance").value(21));
+    }
+
+    @Test
+    @DisplayName("GET printStatements from a snapshot /account/{id}/statements?snapshot= - Success")
+    void testPrintStatementsFromSnapshot() throws Exception {
+        Account account = populateAnAccountWithStatement();
+        Statement statement = Statement.builder()
+                .amount(BigDecimal.valueOf(11))
+                .type(StatementType.DEPOSIT)
+                .build();
+        mockMvc.perform(post("/account/" + account.getId() + "/statements")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(statement)))
+                .andExpect(status().isCreated());
+        MvcResult firstPage = mockMvc.perform(get("/account/" + account.getId() + "/statements")
+                        .param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.snapshot").value(2))
+                .andReturn();
+        long snapshot = objectMapper.readTree(firstPage.getResponse().getContentAsString()).get("snapshot").asLong();
+        mockMvc.perform(post("/account/" + account.getId() + "/statements")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(statement)))
+                .andExpect(status().isCreated());
+        // the deposit made in between is not seen by the next pages of the printing
+        mockMvc.perform(get("/account/" + account.getId() + "/statements")
+                        .param("size", "1")
+                        .param("page", "1")
+                        .param("snapshot", String.valueOf(snapshot)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalStatements").value(2))
+                .andExpect(jsonPath("$.accountBalance").value(21))
+                .andExpect(jsonPath("$.snapshot").value(snapshot));
+        mockMvc.perform(get("/account/" + account.getId() + "/statements")
+                        .param("snapshot", "42"))
+                .andExpect(status().isGone());
+    }
+
+    @Test
+    @DisplayName("GET printStatements of a single page /account/{id}/statements - retains no snapshot")
+    void testPrintSinglePageRetainsNoSnapshot() throws Exception {
+        Account account = populateAnAccountWithStatement();
+        mockMvc.perform(get("/account/" + account.getId() + "/statements")
+                        .param("size", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalStatements").value(1));
+        mockMvc.perform(get("/account/" + account.getId() + "/statements")
+                        .param("snapshot", "1"))
+                .andExpect(status().isGone());
+    }
+
+    @Test
+    @DisplayName("GET stream /account/{id}/statements/stream - Success")
+    void testStreamStatements() throws Exception {
+        Account account = populateAnAccountWithStatement();
+        MvcResult stream = mockMvc.perform(get("/account/" + account.getId() + "/statements/stream")
+                        .header("Last-Event-ID", "0"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        Statement statement = Statement.builder()
+                .amount(BigDecimal.valueOf(11))
+                .type(StatementType.DEPOSIT)
+                .build();
+        mockMvc.perform(post("/account/" + account.getId() + "/statements")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(statement)))
+                .andExpect(status().isCreated());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!stream.getResponse().getContentAsString().contains("id:2-") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        String events = stream.getResponse().getContentAsString();
+        // the statement saved with the account, then the new one
+        Assertions.assertTrue(events.contains("id:1-"), events);
+        Assertions.assertTrue(events.contains("id:2-"), events);
+    }
+
     @Test
     @DisplayName("POST Deposit concurrently /account/{id}/statements - Success")
     void testDepositToAccountConcurrently() throws Exception {
@@ -0,0 +1,102 @@
+package kata.demo.diagnostics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kata.demo.Benchmark;
+import kata.demo.dto.ContentionReport;
+import kata.demo.service.AccountService;
+import kata.demo.service.UpdateProbe;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static kata.demo.TestAccounts.aDeposit;
+import static kata.demo.TestAccounts.anAccount;
+import static kata.demo.TestAccounts.anAccountWithDeposits;
+import static kata.demo.TestConcurrency.medianRatioOfAlternatingRuns;
+import static kata.demo.TestConcurrency.runConcurrently;
+
+class ContentionMonitorTest {
+
+    private static final int THREADS = 8;
+
+    private final AccountService accountService = new AccountService();
+
+    @Test
+    @DisplayName("The hammered account is the hottest one")
+    void testHotAccount() throws Exception {
+        ContentionMonitor monitor = new ContentionMonitor(accountService, 4, 3, 60_000, new SimpleMeterRegistry());
+        accountService.setUpdateProbe(monitor);
+        List<UUID> accounts = someAccounts(1000);
+        UUID hot = accounts.get(0);
+
+        runConcurrently(THREADS, () -> {
+            for (int i = 0; i < 500; i++) {
+                // half of the updates on the hot account, the other half spread over all the accounts
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                deposit(random.nextBoolean() ? hot : accounts.get(random.nextInt(accounts.size())));
+            }
+        });
+
+        ContentionReport report = monitor.report();
+        Assertions.assertEquals(3, report.getHotAccounts().size());
+        ContentionReport.HotAccount hottest = report.getHotAccounts().get(0);
+        Assertions.assertEquals(hot, hottest.getAccountId());
+        Assertions.assertTrue(hottest.getShare() > 0.4, "share " + hottest.getShare());
+        Assertions.assertTrue(report.getSampledUpdates() > 0);
+        Assertions.assertTrue(hottest.getMeanWaitMicros() >= 0);
+    }
+
+    @Benchmark
+    @DisplayName("Benchmark the overhead of the sampling on the updates")
+    void benchmarkOverhead() throws Exception {
+        List<UUID> accounts = someAccounts(64);
+        ContentionMonitor monitor = new ContentionMonitor(accountService, 64, 10, 10_000, new SimpleMeterRegistry());
+
+        double ratio = medianRatioOfAlternatingRuns(30, () -> {
+            accountService.setUpdateProbe(UpdateProbe.NONE);
+            return updatesPerSecond(accounts);
+        }, () -> {
+            accountService.setUpdateProbe(monitor);
+            return updatesPerSecond(accounts);
+        });
+        Assertions.assertFalse(monitor.report().getHotAccounts().isEmpty());
+        double overhead = 1 - ratio;
+        String measured = String.format("sampling 1/64 of the updates costs %.1f%% of their throughput", overhead * 100);
+        System.out.println("Contention monitor: " + measured);
+        Assertions.assertTrue(overhead < 0.05, measured);
+    }
+
+    private double updatesPerSecond(List<UUID> accounts) throws Exception {
+        // start from empty accounts, so that the runs do not slow down as the statements pile up
+        accounts.forEach(id -> accountService.save(anAccountWithDeposits(id, 0)));
+        // nor pay for the garbage of the previous run
+        System.gc();
+        // as many threads as cores, more would only measure the scheduling of the threads
+        int threads = Math.min(THREADS, Runtime.getRuntime().availableProcessors());
+        int updatesPerThread = 200_000 / threads;
+        long start = System.nanoTime();
+        runConcurrently(threads, () -> {
+            for (int i = 0; i < updatesPerThread; i++) {
+                deposit(accounts.get(ThreadLocalRandom.current().nextInt(accounts.size())));
+            }
+        });
+        return threads * updatesPerThread * 1e9 / (System.nanoTime() - start);
+    }
+
+    private List<UUID> someAccounts(int count) {
+        List<UUID> accounts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            accounts.add(accountService.save(anAccount()).getId());
+        }
+        return accounts;
+    }
+
+    private void deposit(UUID accountId) {
+        accountService.update(accountId, aDeposit(1));
+    }
+}
@@ -0,0 +1,148 @@
+package kata.demo.document;
+
+import kata.demo.Benchmark;
+import kata.demo.dto.Account;
+import kata.demo.dto.AccountType;
+import kata.demo.dto.DocumentReport;
+import kata.demo.dto.StatementType;
+import kata.demo.exception.ReadOnlyReplicaException;
+import kata.demo.service.AccountService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static kata.demo.TestAccounts.aStatement;
+import static kata.demo.TestAccounts.anAccount;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatementDocumentServiceTest {
+
+    private static final YearMonth PERIOD = YearMonth.of(2022, 1);
+
+    @TempDir
+    Path directory;
+
+    private final AccountService accountService = new AccountService();
+
+    @Test
+    @DisplayName("The document of an account has its opening balance, the operations of the month with the running balance and its closing balance")
+    void testDocument() throws Exception {
+        Account account = accountService.save(anAccount(AccountType.CHECKING, BigDecimal.valueOf(100)));
+        update(account.getId(), LocalDateTime.of(2021, 12, 31, 23, 0), StatementType.DEPOSIT, 50);
+        update(account.getId(), LocalDateTime.of(2022, 1, 10, 9, 0), StatementType.DEPOSIT, 20);
+        update(account.getId(), LocalDateTime.of(2022, 1, 20, 9, 0), StatementType.WITHDRAWAL, 5);
+        update(account.getId(), LocalDateTime.of(2022, 2, 1, 0, 0), StatementType.DEPOSIT, 1000);
+
+        DocumentReport report = aGenerator(2, 64 * 1024).generate(PERIOD);
+        assertEquals(1, report.getAccounts());
+        assertEquals(2, report.getStatements());
+
+        List<String> document = readDocuments().get(account.getId());
+        assertEquals("STATEMENT OF ACCOUNT " + account.getId() + " CHECKING", document.get(0));
+        assertEquals("PERIOD 2022-01", document.get(1));
+        assertTrue(document.get(2).matches("OPENING BALANCE +150"), document.get(2));
+        assertTrue(document.get(4).matches("10/01/2022 09:00:00 +DEPOSIT +20 +170"), document.get(4));
+        assertTrue(document.get(5).matches("20/01/2022 09:00:00 +WITHDRAWAL +5 +165"), document.get(5));
+        assertTrue(document.get(6).matches("CLOSING BALANCE +165"), document.get(6));
+    }
+
+    @Test
+    @DisplayName("The documents of all the accounts are written in rolling files, and generating them again replaces them")
+    void testRollingFiles() throws Exception {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Account account = accountService.save(anAccount(AccountType.SAVINGS, BigDecimal.ZERO));
+            update(account.getId(), LocalDateTime.of(2022, 1, 15, 12, 0), StatementType.DEPOSIT, i + 1);
+            ids.add(account.getId());
+        }
+
+        DocumentReport report = aGenerator(3, 16 * 1024).generate(PERIOD);
+        assertTrue(report.getFiles() > 3, "files " + report.getFiles());
+        report = aGenerator(2, 16 * 1024).generate(PERIOD);
+        assertEquals(1000, report.getAccounts());
+        assertEquals(report.getFiles(), listFiles(".txt").size());
+
+        Map<UUID, List<String>> documents = readDocuments();
+        assertEquals(1000, documents.size());
+        for (int i = 0; i < ids.size(); i++) {
+            List<String> document = documents.get(ids.get(i));
+            assertTrue(document.get(5).matches("CLOSING BALANCE +" + (i + 1)), document.get(5));
+        }
+    }
+
+    @Test
+    @DisplayName("Never generate the documents on a follower, they are generated by the leader")
+    void testFollower() {
+        accountService.save(anAccount());
+        StatementDocumentService generator = new StatementDocumentService(accountService, directory.toString(), 1, 64 * 1024, 8 * 1024, "follower");
+
+        assertThrows(ReadOnlyReplicaException.class, () -> generator.generate(PERIOD));
+        generator.scheduledGeneration();
+        assertTrue(Files.notExists(directory.resolve(YearMonth.now().minusMonths(1).toString())));
+    }
+
+    @Benchmark
+    @DisplayName("Benchmark the generation of the documents of 100000 accounts")
+    void benchmark() throws Exception {
+        for (int i = 0; i < 100_000; i++) {
+            Account account = accountService.save(anAccount());
+            for (int day = 1; day <= 5; day++) {
+                update(account.getId(), LocalDateTime.of(2022, 1, day * 5, 12, 0), StatementType.DEPOSIT, day);
+            }
+        }
+
+        DocumentReport report = aGenerator(0, 64 * 1024 * 1024).generate(PERIOD);
+        assertEquals(100_000, report.getAccounts());
+        assertEquals(500_000, report.getStatements());
+        assertTrue(report.getAccountsPerSecond() > 20_000, "only " + report.getAccountsPerSecond() + " accounts/s");
+        assertEquals(report.getBytes(), listFiles(".txt").stream().mapToLong(file -> file.toFile().length()).sum());
+    }
+
+    private StatementDocumentService aGenerator(int parallelism, long maxFileBytes) {
+        return new StatementDocumentService(accountService, directory.toString(), parallelism, maxFileBytes, 8 * 1024, "");
+    }
+
+    private void update(UUID id, LocalDateTime date, StatementType type, int amount) {
+        accountService.update(id, aStatement(type, amount, date));
+    }
+
+    /**
+     * @return the lines of the documents, found through the index files
+     */
+    private Map<UUID, List<String>> readDocuments() throws IOException {
+        Map<UUID, List<String>> documents = new HashMap<>();
+        for (Path index : listFiles(".index")) {
+            for (String entry : Files.readAllLines(index)) {
+                String[] fields = entry.split(";");
+                byte[] file = Files.readAllBytes(directory.resolve(PERIOD.toString()).resolve(fields[1]));
+                String document = new String(file, Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), StandardCharsets.UTF_8);
+                documents.put(UUID.fromString(fields[0]), Arrays.asList(document.split("\n")));
+            }
+        }
+        return documents;
+    }
+
+    private List<Path> listFiles(String extension) throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve(PERIOD.toString()))) {
+            return files.filter(file -> file.toString().endsWith(extension)).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package kata.demo.dto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+class StatementHistoryTest {
+
+    @Test
+    @DisplayName("Previous versions are unchanged by the appends")
+    void testVersionsAreImmutable() {
+        StatementHistory v0 = StatementHistory.of(null);
+        List<StatementHistory> versions = new ArrayList<>();
+        StatementHistory latest = v0;
+        for (int i = 0; i < 100; i++) {
+            versions.add(latest);
+            latest = latest.append(deposit(i));
+        }
+        Assertions.assertEquals(100, latest.size());
+        for (int i = 0; i < versions.size(); i++) {
+            StatementHistory version = versions.get(i);
+            Assertions.assertEquals(i, version.size());
+            for (int j = 0; j < i; j++) {
+                Assertions.assertEquals(BigDecimal.valueOf(j), version.get(j).getAmount());
+            }
+        }
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> versions.get(10).get(10));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> versions.get(10).add(deposit(0)));
+    }
+
+    @Test
+    @DisplayName("Appending to a previous version forks the history")
+    void testAppendToPreviousVersion() {
+        StatementHistory v1 = StatementHistory.of(List.of(deposit(1)));
+        StatementHistory v2 = v1.append(deposit(2));
+        StatementHistory fork = v1.append(deposit(3));
+        Assertions.assertEquals(List.of(deposit(1), deposit(2)), v2);
+        Assertions.assertEquals(List.of(deposit(1), deposit(3)), fork);
+        Assertions.assertEquals(List.of(deposit(1), deposit(2), deposit(4)), v2.append(deposit(4)));
+        Assertions.assertSame(v2, StatementHistory.of(v2));
+    }
+
+    private static Statement deposit(int amount) {
+        return Statement.builder()
+                .amount(BigDecimal.valueOf(amount))
+                .type(StatementType.DEPOSIT)
+                .build();
+    }
+}
@@ -0,0 +1,138 @@
+package kata.demo.replication;
+
+import kata.demo.DemoApplication;
+import kata.demo.dto.Account;
+import kata.demo.exception.AccountNotFoundException;
+import kata.demo.service.AccountService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static kata.demo.TestAccounts.aDeposit;
+import static kata.demo.TestAccounts.anAccountWithDeposits;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicationTest {
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    @AfterEach
+    void stopNodes() {
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    @DisplayName("A follower catches up from a snapshot then applies the live operations of the leader")
+    void testFollowerReplicatesLeader() throws Exception {
+        ConfigurableApplicationContext leader = startNode("--account.replication.role=leader", "--account.replication.port=0");
+        AccountService leaderAccounts = leader.getBean(AccountService.class);
+        // created before the follower starts, so it's only known from the snapshot
+        Account existing = leaderAccounts.save(anAccountWithDeposits(null, 1));
+        leaderAccounts.update(existing.getId(), aDeposit(1));
+
+        ConfigurableApplicationContext follower = startNode("--account.replication.role=follower",
+                "--account.replication.port=" + leader.getBean(ReplicationLeader.class).getPort());
+        AccountService followerAccounts = follower.getBean(AccountService.class);
+        awaitUntil(() -> follower.getBean(ReplicationFollower.class).isCaughtUp());
+        assertEquals(2, followerAccounts.findById(existing.getId()).getStatements().size());
+
+        Account created = leaderAccounts.save(anAccountWithDeposits(null, 1));
+        for (int i = 0; i < 100; i++) {
+            leaderAccounts.update(created.getId(), aDeposit(1));
+            leaderAccounts.update(existing.getId(), aDeposit(1));
+        }
+        awaitUntil(() -> versionOf(followerAccounts, created.getId()) == 101 && versionOf(followerAccounts, existing.getId()) == 102);
+        assertEquals(leaderAccounts.findById(created.getId()).getBalance(), followerAccounts.findById(created.getId()).getBalance());
+        awaitUntil(() -> follower.getBean(ReplicationFollower.class).getLagOperations() == 0);
+
+        // the follower serves the reads only
+        String followerUrl = "http://localhost:" + follower.getEnvironment().getProperty("local.server.port") + "/account/" + created.getId();
+        HttpClient client = HttpClient.newHttpClient();
+        assertEquals(200, client.send(HttpRequest.newBuilder(URI.create(followerUrl)).build(),
+                HttpResponse.BodyHandlers.discarding()).statusCode());
+        assertEquals(405, client.send(HttpRequest.newBuilder(URI.create(followerUrl + "/statements"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"type\":\"DEPOSIT\",\"amount\":1}")).build(),
+                HttpResponse.BodyHandlers.discarding()).statusCode());
+        // and never runs the end of day batch nor generates the documents, which is done by the leader
+        String followerRoot = "http://localhost:" + follower.getEnvironment().getProperty("local.server.port");
+        for (String path : List.of("/batch/INTEREST", "/documents/2022-01")) {
+            assertEquals(405, client.send(HttpRequest.newBuilder(URI.create(followerRoot + path)).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode(), path);
+        }
+    }
+
+    @Test
+    @DisplayName("A follower reconnecting to the leader drops the accounts removed while it was disconnected")
+    void testFollowerReconnects() throws Exception {
+        String replicationPort = "--account.replication.port=" + freePort();
+        ConfigurableApplicationContext leader = startNode("--account.replication.role=leader", replicationPort);
+        Account kept = leader.getBean(AccountService.class).save(anAccountWithDeposits(null, 1));
+        Account removed = leader.getBean(AccountService.class).save(anAccountWithDeposits(null, 1));
+
+        ConfigurableApplicationContext follower = startNode("--account.replication.role=follower", replicationPort,
+                "--account.replication.reconnect-delay-ms=50");
+        AccountService followerAccounts = follower.getBean(AccountService.class);
+        ReplicationFollower replication = follower.getBean(ReplicationFollower.class);
+        awaitUntil(() -> replication.isCaughtUp() && versionOf(followerAccounts, removed.getId()) == 1);
+
+        // the leader is replaced while the follower is disconnected, without the removed account
+        leader.close();
+        awaitUntil(() -> !replication.isCaughtUp());
+        ConfigurableApplicationContext restarted = startNode("--account.replication.role=leader", replicationPort);
+        AccountService restartedAccounts = restarted.getBean(AccountService.class);
+        restartedAccounts.update(restartedAccounts.save(kept).getId(), aDeposit(1));
+
+        awaitUntil(() -> replication.isCaughtUp() && versionOf(followerAccounts, kept.getId()) == 2);
+        assertEquals(-1, versionOf(followerAccounts, removed.getId()), "The removed account is dropped");
+    }
+
+    private ConfigurableApplicationContext startNode(String... args) {
+        ConfigurableApplicationContext node = new SpringApplicationBuilder(DemoApplication.class)
+                .run(concat(args, "--server.port=0"));
+        nodes.add(node);
+        return node;
+    }
+
+    private static String[] concat(String[] args, String arg) {
+        String[] all = java.util.Arrays.copyOf(args, args.length + 1);
+        all[args.length] = arg;
+        return all;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static int versionOf(AccountService accountService, UUID id) {
+        try {
+            return accountService.findById(id).getStatements().size();
+        } catch (AccountNotFoundException e) {
+            return -1;
+        }
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition not met in time");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package kata.demo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kata.demo.TestAccounts;
+import kata.demo.TestConcurrency;
+import kata.demo.dto.Account;
+import kata.demo.dto.Statement;
+import kata.demo.dto.StatementPrinting;
+import kata.demo.dto.StatementType;
+import kata.demo.exception.AccountInsufficientBalance;
+import kata.demo.exception.AccountNotFoundException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static kata.demo.TestAccounts.aStatement;
+import static kata.demo.TestAccounts.anAccount;
+import static kata.demo.TestAccounts.anAccountWithDeposits;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hammers {@link AccountService} from many threads and checks its invariants:
+ * the balance of an account is always the sum of its statements and never negative, no statement is lost,
+ * every saved account is found, and printing a page never fails while the account is updated.
+ */
+class AccountServiceStressTest {
+
+    private static final int THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+    private static final long DURATION_MS = 1500;
+
+    private final AccountService accountService = new AccountService();
+    private final StatementPrinter statementPrinter = new StatementPrinter();
+    private final List<Throwable> failures = new CopyOnWriteArrayList<>();
+
+    AccountServiceStressTest() {
+        // the listeners run in the update path, so they are part of what is stressed
+        accountService.addListener(new StatementPageCache(accountService, 1024 * 1024, new SimpleMeterRegistry()));
+    }
+
+    @Test
+    @DisplayName("Concurrent deposits and withdrawals on a few hot accounts")
+    void stressUpdate() throws Exception {
+        List<UUID> accounts = new ArrayList<>();
+        Map<UUID, AtomicInteger> applied = new ConcurrentHashMap<>();
+        for (int i = 0; i < 4; i++) {
+            UUID id = accountService.save(anAccount()).getId();
+            accounts.add(id);
+            applied.put(id, new AtomicInteger());
+        }
+
+        runConcurrently("update", THREADS - 1, () -> {
+            UUID id = accounts.get(ThreadLocalRandom.current().nextInt(accounts.size()));
+            boolean deposit = ThreadLocalRandom.current().nextBoolean();
+            try {
+                accountService.update(id, aStatement(deposit ? StatementType.DEPOSIT : StatementType.WITHDRAWAL,
+                        ThreadLocalRandom.current().nextInt(1, 10)));
+                applied.get(id).incrementAndGet();
+            } catch (AccountInsufficientBalance e) {
+                // expected when withdrawing more than the balance
+            }
+        }, 1, () -> {
+            // a reader always sees a consistent account
+            checkConsistent(accountService.findById(accounts.get(ThreadLocalRandom.current().nextInt(accounts.size()))));
+        });
+
+        for (UUID id : accounts) {
+            Account account = accountService.findById(id);
+            checkConsistent(account);
+            assertEquals(applied.get(id).get(), account.getStatements().size(), "No statement is lost");
+        }
+    }
+
+    @Test
+    @DisplayName("Concurrent creation and search of accounts")
+    void stressSaveAndFind() throws Exception {
+        Set<UUID> created = ConcurrentHashMap.newKeySet();
+
+        runConcurrently("save and findById", THREADS, () -> {
+            Account saved = accountService.save(anAccount());
+            assertTrue(created.add(saved.getId()), "Ids are unique");
+            assertEquals(saved, accountService.findById(saved.getId()));
+        }, 0, () -> {
+        });
+
+        assertEquals(created.size(), accountService.findAll().size());
+        created.forEach(id -> accountService.findById(id));
+    }
+
+    @Test
+    @DisplayName("Concurrent saves, updates and removals of an account are notified in the order they are stored")
+    void stressNotificationOrder() throws Exception {
+        Map<UUID, Optional<Account>> notified = new ConcurrentHashMap<>();
+        accountService.addListener(new AccountListener() {
+            @Override
+            public void onAccountSaved(Account account) {
+                notified.put(account.getId(), Optional.of(account));
+            }
+
+            @Override
+            public void onStatementAppended(Account account, Statement statement) {
+                // a replica replaying the notifications appends the statement to the account it was last notified of
+                Optional<Account> previous = notified.put(account.getId(), Optional.of(account));
+                if (previous == null || previous.isEmpty()
+                        || previous.get().getStatements().size() + 1 != account.getStatements().size()
+                        || statement.applyStatement(previous.get().getBalance()).compareTo(account.getBalance()) != 0) {
+                    failures.add(new AssertionError("A statement is notified after a save of its account"));
+                }
+            }
+
+            @Override
+            public void onAccountRemoved(Account account) {
+                notified.put(account.getId(), Optional.empty());
+            }
+        });
+        UUID id = accountService.save(anAccount()).getId();
+
+        runConcurrently("save, update and remove", THREADS - 1, () -> {
+            int operation = ThreadLocalRandom.current().nextInt(10);
+            if (operation == 0) {
+                accountService.remove(id);
+            } else if (operation < 4) {
+                accountService.save(anAccountWithDeposits(id, 1));
+            } else {
+                try {
+                    accountService.update(id, aStatement(StatementType.DEPOSIT, 1));
+                } catch (AccountNotFoundException e) {
+                    // expected when the account was just removed
+                }
+            }
+        }, 1, () -> checkConsistent(accountService.findAll().stream().findFirst().orElseGet(TestAccounts::anAccount)));
+
+        // a replica replaying the notifications ends up with the stored account
+        Optional<Account> stored = accountService.findAll().stream().filter(account -> account.getId().equals(id)).findFirst();
+        assertEquals(stored.isPresent(), notified.get(id).isPresent(), "The account is stored and notified as stored");
+        stored.ifPresent(account -> assertSame(account, notified.get(id).get(), "The last notified account is the stored one"));
+    }
+
+    @Test
+    @DisplayName("Print pages of an account while it's updated")
+    void stressPrinting() throws Exception {
+        UUID id = accountService.save(anAccount()).getId();
+        List<Sort> sorts = List.of(Sort.unsorted(), Sort.by(Sort.Direction.ASC, "date"), Sort.by(Sort.Direction.DESC, "date"));
+
+        runConcurrently("update and print", THREADS / 2, () -> accountService.update(id, aStatement(StatementType.DEPOSIT, 1)), THREADS / 2, () -> {
+            Account account = accountService.findById(id);
+            int size = ThreadLocalRandom.current().nextInt(1, 50);
+            // sometimes after the last page
+            int page = ThreadLocalRandom.current().nextInt(account.getStatements().size() / size + 2);
+            StatementPrinting printing = statementPrinter.print(account,
+                    PageRequest.of(page, size, sorts.get(ThreadLocalRandom.current().nextInt(sorts.size()))));
+            assertEquals(account.getStatements().size(), printing.getTotalStatements());
+            assertEquals(account.getBalance(), printing.getAccountBalance());
+            assertEquals(Math.max(0, Math.min(size, account.getStatements().size() - page * size)), printing.getStatements().size());
+        });
+
+        checkConsistent(accountService.findById(id));
+    }
+
+    /**
+     * Run the writers and the readers together for a while, fail if any of them failed or if either side was starved,
+     * and report their throughput
+     */
+    private void runConcurrently(String name, int writers, Runnable write, int readers, Runnable read) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        LongAdder writes = new LongAdder();
+        LongAdder reads = new LongAdder();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < writers + readers; i++) {
+            Runnable operation = i < writers ? write : read;
+            LongAdder operations = i < writers ? writes : reads;
+            tasks.add(() -> {
+                try {
+                    // the first failure stops the others
+                    while (System.nanoTime() < deadline && failures.isEmpty()) {
+                        operation.run();
+                        operations.increment();
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+        }
+        TestConcurrency.runConcurrently(tasks);
+        if (!failures.isEmpty()) {
+            throw new AssertionError("A concurrent operation failed", failures.get(0));
+        }
+        assertTrue(writes.sum() >= writers, "The writers made progress: " + writes.sum() + " operations");
+        assertTrue(reads.sum() >= readers, "The readers made progress: " + reads.sum() + " operations");
+        System.out.printf("Stress %s: %d writers, %.0f writes/s, %d readers, %.0f reads/s%n", name,
+                writers, writes.sum() * 1000.0 / DURATION_MS, readers, reads.sum() * 1000.0 / DURATION_MS);
+    }
+
+    private static void checkConsistent(Account account) {
+        BigDecimal sum = BigDecimal.ZERO;
+        for (Statement statement : account.getStatements()) {
+            sum = statement.applyStatement(sum);
+        }
+        assertEquals(0, sum.compareTo(account.getBalance()), "The balance is the sum of the statements");
+        assertTrue(account.getBalance().signum() >= 0, "The balance is never negative");
+    }
+}
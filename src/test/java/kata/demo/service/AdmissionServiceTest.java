@@ -0,0 +1,98 @@
+package kata.demo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kata.demo.exception.AccountOverloadedException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AdmissionServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    @DisplayName("Reject an operation when the account has too many operations in flight")
+    void testRejectWhenAccountIsBusy() throws Exception {
+        AdmissionService admissionService = new AdmissionService(10, 1, 0, 2, meterRegistry);
+        UUID hotAccount = UUID.randomUUID();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> inFlight = CompletableFuture.supplyAsync(() -> admissionService.admit(hotAccount, () -> {
+            started.countDown();
+            await(release);
+            return "done";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+
+        AccountOverloadedException ex = assertThrows(AccountOverloadedException.class,
+                () -> admissionService.admit(hotAccount, () -> "rejected"));
+        assertEquals(2, ex.getRetryAfterSeconds());
+        // another account is not impacted by the hot one
+        assertEquals("other", admissionService.admit(UUID.randomUUID(), () -> "other"));
+
+        release.countDown();
+        assertEquals("done", inFlight.get(5, TimeUnit.SECONDS));
+        assertEquals("again", admissionService.admit(hotAccount, () -> "again"));
+        assertEquals(1, meterRegistry.get("account.admission.rejections").tag("scope", "account").counter().count());
+    }
+
+    @Test
+    @DisplayName("Reject an operation when the service has too many operations in flight")
+    void testRejectWhenServiceIsBusy() throws Exception {
+        AdmissionService admissionService = new AdmissionService(1, 4, 10, 1, meterRegistry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> inFlight = CompletableFuture.supplyAsync(() -> admissionService.admit(UUID.randomUUID(), () -> {
+            started.countDown();
+            await(release);
+            return "done";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+
+        assertThrows(AccountOverloadedException.class, () -> admissionService.admit(UUID.randomUUID(), () -> "rejected"));
+
+        release.countDown();
+        assertEquals("done", inFlight.get(5, TimeUnit.SECONDS));
+        assertEquals(1, meterRegistry.get("account.admission.rejections").tag("scope", "global").counter().count());
+    }
+
+    @Test
+    @DisplayName("The operations queued on a hot account do not hold the global permits")
+    void testQueuedOnHotAccountDoNotHoldGlobalPermits() throws Exception {
+        AdmissionService admissionService = new AdmissionService(2, 1, 2000, 1, meterRegistry);
+        UUID hotAccount = UUID.randomUUID();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> inFlight = CompletableFuture.supplyAsync(() -> admissionService.admit(hotAccount, () -> {
+            started.countDown();
+            await(release);
+            return "done";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+        // waits for the permit of the hot account
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> admissionService.admit(hotAccount, () -> "queued"));
+        Thread.sleep(100);
+
+        assertEquals("other", admissionService.admit(UUID.randomUUID(), () -> "other"));
+        assertEquals(0, meterRegistry.get("account.admission.rejections").tag("scope", "global").counter().count());
+
+        release.countDown();
+        assertEquals("done", inFlight.get(5, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package kata.demo.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kata.demo.Benchmark;
+import kata.demo.dto.Account;
+import kata.demo.dto.AccountType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static kata.demo.TestAccounts.aDeposit;
+import static kata.demo.TestAccounts.anAccountWithDeposits;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatementPageCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AccountService accountService = new AccountService();
+
+    private final ObjectMapper objectMapper = JsonMapper.builder()
+            .findAndAddModules()
+            .build();
+
+    @Test
+    @DisplayName("Serve a page from the cache until a statement is appended to the account")
+    void testCacheInvalidatedOnAppend() {
+        StatementPageCache cache = aCache(1024 * 1024);
+        Account account = accountService.save(anAccountWithDeposits(UUID.randomUUID(), 3));
+        Pageable pageable = PageRequest.of(0, 2);
+        AtomicInteger renderings = new AtomicInteger();
+
+        byte[] first = cache.get(account, pageable, () -> render(renderings));
+        assertSame(first, cache.get(account, pageable, () -> render(renderings)));
+        assertEquals(1, renderings.get());
+
+        // another page of the same account is rendered on its own
+        cache.get(account, PageRequest.of(1, 2), () -> render(renderings));
+        assertEquals(2, renderings.get());
+
+        Account updated = accountService.update(account.getId(), aDeposit(1));
+        cache.get(updated, pageable, () -> render(renderings));
+        assertEquals(3, renderings.get());
+        assertEquals(1, meterRegistry.get("account.statements.page-cache").tag("result", "hit").counter().count());
+        assertEquals(3, meterRegistry.get("account.statements.page-cache").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    @DisplayName("Never cache a page rendered from an account replaced meanwhile, even with the same number of statements")
+    void testPageOfReplacedAccountIsNotCached() {
+        StatementPageCache cache = aCache(1024 * 1024);
+        Account account = accountService.save(anAccountWithDeposits(UUID.randomUUID(), 3));
+        Pageable pageable = PageRequest.of(0, 2);
+        AtomicInteger renderings = new AtomicInteger();
+
+        // the account is replaced while its page is rendered
+        byte[] stale = cache.get(account, pageable, () -> {
+            accountService.save(Account.builder()
+                    .id(account.getId())
+                    .type(AccountType.CHECKING)
+                    .balance(BigDecimal.valueOf(42))
+                    .statements(account.getStatements())
+                    .build());
+            return render(renderings);
+        });
+        Account replaced = accountService.findById(account.getId());
+        assertNotSame(stale, cache.get(replaced, pageable, () -> render(renderings)));
+        assertEquals(2, renderings.get());
+    }
+
+    @Test
+    @DisplayName("Evict pages when the cache is full")
+    void testCacheIsBounded() {
+        StatementPageCache cache = aCache(100);
+        for (int i = 0; i < 50; i++) {
+            cache.get(accountService.save(anAccountWithDeposits(UUID.randomUUID(), 1)), PageRequest.of(0, 10), () -> new byte[10]);
+        }
+        assertTrue(meterRegistry.get("account.statements.page-cache.bytes").gauge().value() <= 100);
+    }
+
+    @Benchmark
+    @DisplayName("Benchmark printing statement pages with and without the cache")
+    void benchmarkPrinting() {
+        StatementPageCache cache = aCache(16 * 1024 * 1024);
+        StatementPrinter statementPrinter = new StatementPrinter();
+        Account account = accountService.save(anAccountWithDeposits(UUID.randomUUID(), 1000));
+        Pageable pageable = PageRequest.of(2, 50, Sort.by(Sort.Direction.DESC, "date"));
+        int iterations = 20_000;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            print(statementPrinter, account, pageable);
+        }
+        long uncachedNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            cache.get(account, pageable, () -> print(statementPrinter, account, pageable));
+        }
+        long cachedNanos = System.nanoTime() - start;
+
+        double hits = meterRegistry.get("account.statements.page-cache").tag("result", "hit").counter().count();
+        assertEquals(iterations - 1, hits);
+        assertTrue(cachedNanos * 2 < uncachedNanos, () -> String.format("uncached %.1f us/op, cached %.1f us/op",
+                uncachedNanos / 1000.0 / iterations, cachedNanos / 1000.0 / iterations));
+    }
+
+    private StatementPageCache aCache(long maxBytes) {
+        StatementPageCache cache = new StatementPageCache(accountService, maxBytes, meterRegistry);
+        accountService.addListener(cache);
+        return cache;
+    }
+
+    private byte[] render(AtomicInteger renderings) {
+        renderings.incrementAndGet();
+        return new byte[16];
+    }
+
+    /**
+     * The same path as the printing of the statements by the controller
+     */
+    private byte[] print(StatementPrinter statementPrinter, Account account, Pageable pageable) {
+        try {
+            return objectMapper.writeValueAsBytes(statementPrinter.print(account, pageable));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package kata.demo.service;
+
+import kata.demo.dto.Account;
+import kata.demo.dto.Statement;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static kata.demo.TestAccounts.aDeposit;
+import static kata.demo.TestAccounts.anAccount;
+import static kata.demo.TestAccounts.anAccountWithDeposits;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatementStreamServiceTest {
+
+    private final AccountService accountService = new AccountService();
+    private final StatementStreamService streamService = new StatementStreamService(accountService, 8, 50, 2, 8, 500);
+
+    StatementStreamServiceTest() {
+        accountService.addListener(streamService);
+    }
+
+    @AfterEach
+    void stop() {
+        streamService.stop();
+    }
+
+    @Test
+    @DisplayName("Push the new statements of the account to every subscriber")
+    void testFanOut() throws Exception {
+        Account account = accountService.save(anAccount());
+        CollectingSink first = new CollectingSink();
+        CollectingSink second = new CollectingSink();
+        streamService.subscribe(account.getId(), null, first);
+        streamService.subscribe(account.getId(), null, second);
+
+        for (int i = 1; i <= 20; i++) {
+            accountService.update(account.getId(), aDeposit(i));
+        }
+        for (CollectingSink sink : List.of(first, second)) {
+            for (long i = 1; i <= 20; i++) {
+                assertEquals(i, sink.nextVersion());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Resume from the last event id, even when it's not in the ring buffer anymore")
+    void testResumeFromLastEventId() throws Exception {
+        Account account = accountService.save(anAccount());
+        for (int i = 1; i <= 20; i++) {
+            accountService.update(account.getId(), aDeposit(i));
+        }
+        CollectingSink first = new CollectingSink();
+        streamService.subscribe(account.getId(), "0", first);
+        List<String> eventIds = first.nextEventIds(20);
+
+        CollectingSink resumed = new CollectingSink();
+        streamService.subscribe(account.getId(), eventIds.get(2), resumed);
+        accountService.update(account.getId(), aDeposit(21));
+
+        for (long i = 4; i <= 21; i++) {
+            assertEquals(i, resumed.nextVersion());
+        }
+    }
+
+    @Test
+    @DisplayName("Resume from the first statement when the account was replaced since the last event")
+    void testResumeAfterReplacement() throws Exception {
+        UUID id = accountService.save(anAccountWithDeposits(null, 5)).getId();
+        CollectingSink first = new CollectingSink();
+        streamService.subscribe(id, "0", first);
+        List<String> eventIds = first.nextEventIds(5);
+
+        // the same statements saved again, as when the account is moved to another node, keep their event ids
+        accountService.save(anAccountWithDeposits(id, 5));
+        assertTrue(first.overflow.await(5, TimeUnit.SECONDS), "The subscribers of a replaced account are disconnected");
+        CollectingSink moved = new CollectingSink();
+        streamService.subscribe(id, eventIds.get(2), moved);
+        assertEquals(4, moved.nextVersion());
+        assertEquals(5, moved.nextVersion());
+
+        // other statements don't
+        Account replaced = accountService.save(anAccountWithDeposits(id, 0));
+        accountService.update(replaced.getId(), aDeposit(7));
+        CollectingSink restarted = new CollectingSink();
+        streamService.subscribe(id, eventIds.get(0), restarted);
+        assertEquals(1, restarted.nextVersion());
+        assertNotEquals(eventIds.get(0), restarted.eventIds.get(0));
+    }
+
+    @Test
+    @DisplayName("A subscriber joining a stream while its last subscriber leaves it is still fed")
+    void testSubscribeWhileUnsubscribing() throws Exception {
+        Account account = accountService.save(anAccount());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 1; i <= 500; i++) {
+                Runnable leaving = streamService.subscribe(account.getId(), null, new CollectingSink());
+                CollectingSink joining = new CollectingSink();
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?> left = executor.submit(() -> {
+                    start.await();
+                    leaving.run();
+                    return null;
+                });
+                Future<Runnable> joined = executor.submit(() -> {
+                    start.await();
+                    return streamService.subscribe(account.getId(), null, joining);
+                });
+                start.countDown();
+                left.get();
+                Runnable cancel = joined.get();
+
+                accountService.update(account.getId(), aDeposit(1));
+                assertEquals(i, joining.nextVersion());
+                cancel.run();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("A slow subscriber never blocks the writers and is disconnected once too late")
+    void testSlowSubscriber() throws Exception {
+        Account account = accountService.save(anAccount());
+        CountDownLatch release = new CountDownLatch(1);
+        CollectingSink slow = new CollectingSink() {
+            @Override
+            public void send(String eventId, Statement statement) throws IOException {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.send(eventId, statement);
+            }
+        };
+        CollectingSink fast = new CollectingSink();
+        streamService.subscribe(account.getId(), null, slow);
+        streamService.subscribe(account.getId(), null, fast);
+
+        long start = System.nanoTime();
+        for (int i = 1; i <= 100; i++) {
+            accountService.update(account.getId(), aDeposit(i));
+            // the fast subscriber keeps up with the writer
+            assertEquals(i, fast.nextVersion());
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 2, "The writers are not blocked");
+        release.countDown();
+        assertTrue(slow.overflow.await(5, TimeUnit.SECONDS), "The slow subscriber is disconnected");
+    }
+
+    @Test
+    @DisplayName("Clients which don't read their stream don't stall the subscribers of the other accounts, and are closed without being written to")
+    void testBlockedClients() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<CollectingSink> blocked = new ArrayList<>();
+        // more blocked clients than drain threads, but less than writer threads
+        for (int i = 0; i < 4; i++) {
+            Account account = accountService.save(anAccount());
+            CollectingSink sink = new CollectingSink() {
+                @Override
+                public void send(String eventId, Statement statement) throws IOException {
+                    try {
+                        release.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            streamService.subscribe(account.getId(), null, sink);
+            accountService.update(account.getId(), aDeposit(1));
+            blocked.add(sink);
+        }
+        Account other = accountService.save(anAccount());
+        CollectingSink fast = new CollectingSink();
+        streamService.subscribe(other.getId(), null, fast);
+
+        long start = System.nanoTime();
+        accountService.update(other.getId(), aDeposit(1));
+        assertEquals(1, fast.nextVersion());
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5, "The other subscribers are served");
+        // the drains of the blocked clients started before the one of the other subscriber, they time out within the send timeout
+        Thread.sleep(1000);
+        // as when the connection of a blocked client times out
+        release.countDown();
+        for (CollectingSink sink : blocked) {
+            assertTrue(sink.aborted.await(5, TimeUnit.SECONDS), "The blocked clients are disconnected");
+            assertEquals(1, sink.overflow.getCount(), "Nothing is written to a blocked client anymore");
+        }
+    }
+
+    @Test
+    @DisplayName("A subscriber falling too far behind while it's being fed is disconnected without being fed the whole lag")
+    void testLagDuringDrain() throws Exception {
+        Account account = accountService.save(anAccount());
+        CountDownLatch appended = new CountDownLatch(1);
+        CollectingSink late = new CollectingSink() {
+            @Override
+            public void send(String eventId, Statement statement) throws IOException {
+                try {
+                    if (!eventId.startsWith("1-")) {
+                        appended.await(5, TimeUnit.SECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.send(eventId, statement);
+            }
+        };
+        streamService.subscribe(account.getId(), null, late);
+        accountService.update(account.getId(), aDeposit(1));
+        // the subscriber is live once caught up with its first event
+        assertEquals(1, late.nextVersion());
+
+        for (int i = 2; i <= 200; i++) {
+            accountService.update(account.getId(), aDeposit(i));
+        }
+        appended.countDown();
+        assertTrue(late.overflow.await(5, TimeUnit.SECONDS), "The late subscriber is disconnected");
+        assertTrue(late.eventIds.size() < 200, "Fed " + late.eventIds.size() + " events");
+    }
+
+    @Test
+    @DisplayName("Disconnect the subscribers of a removed account without blocking the thread removing it")
+    void testRemovedAccount() throws Exception {
+        Account account = accountService.save(anAccount());
+        CollectingSink sink = new CollectingSink();
+        streamService.subscribe(account.getId(), null, sink);
+
+        accountService.remove(account.getId());
+        assertTrue(sink.overflow.await(5, TimeUnit.SECONDS), "The subscriber is disconnected");
+        assertNotEquals(Thread.currentThread().getName(), sink.overflowThread);
+    }
+
+    private static class CollectingSink implements StatementSink {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        final List<String> eventIds = new ArrayList<>();
+        final CountDownLatch overflow = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        volatile String overflowThread;
+
+        @Override
+        public void send(String eventId, Statement statement) throws IOException {
+            events.add(eventId);
+        }
+
+        @Override
+        public void overflow() {
+            overflowThread = Thread.currentThread().getName();
+            overflow.countDown();
+        }
+
+        @Override
+        public void abort() {
+            aborted.countDown();
+        }
+
+        long nextVersion() throws InterruptedException {
+            String eventId = events.poll(5, TimeUnit.SECONDS);
+            assertTrue(eventId != null, "No event received");
+            eventIds.add(eventId);
+            return Long.parseLong(eventId.substring(0, eventId.indexOf('-')));
+        }
+
+        List<String> nextEventIds(int count) throws InterruptedException {
+            for (int i = 0; i < count; i++) {
+                nextVersion();
+            }
+            return eventIds;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package kata.demo.service;
+
+import kata.demo.Benchmark;
+import kata.demo.dto.Account;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static kata.demo.TestAccounts.anAccount;
+import static kata.demo.TestConcurrency.medianRatioOfAlternatingRuns;
+import static kata.demo.TestConcurrency.runConcurrently;
+
+class TimeOrderedIdGeneratorTest {
+
+    private static final int CREATORS = 16;
+
+    private final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+
+    @Test
+    @DisplayName("The ids are version 7 UUIDs, ordered by their creation time")
+    void testTimeOrdered() throws Exception {
+        UUID first = generator.nextId();
+        Thread.sleep(2);
+        UUID second = generator.nextId();
+        Assertions.assertEquals(7, first.version());
+        Assertions.assertEquals(2, first.variant());
+        Assertions.assertTrue(first.compareTo(second) < 0, first + " " + second);
+        // the first 48 bits are the creation time in milliseconds
+        long createdAt = second.getMostSignificantBits() >>> 16;
+        Assertions.assertTrue(Math.abs(System.currentTimeMillis() - createdAt) < 1000);
+    }
+
+    @Test
+    @DisplayName("The ids generated concurrently are unique")
+    void testUnique() throws Exception {
+        Set<UUID> ids = ConcurrentHashMap.newKeySet();
+        runConcurrently(CREATORS, () -> {
+            for (int i = 0; i < 100_000; i++) {
+                Assertions.assertTrue(ids.add(generator.nextId()));
+            }
+        });
+        Assertions.assertEquals(CREATORS * 100_000, ids.size());
+    }
+
+    @Benchmark
+    @DisplayName("Benchmark the generation of ids by many concurrent creators, random and time-ordered")
+    void benchmarkConcurrentGeneration() throws Exception {
+        double speedup = medianRatioOfAlternatingRuns(5, () -> idsPerSecond(UUID::randomUUID), () -> idsPerSecond(new TimeOrderedIdGenerator()));
+        String measured = String.format("time-ordered ids are generated %.1f times as fast as with UUID.randomUUID", speedup);
+        System.out.println("Id generation: " + measured);
+        // UUID.randomUUID draws from a SecureRandom shared by all the creators, the time-ordered ids from one per creator
+        Assertions.assertTrue(speedup > 1, measured);
+    }
+
+    @Test
+    @DisplayName("The accounts created in batches by many concurrent creators all get their own id")
+    void testConcurrentCreation() throws Exception {
+        AccountService accountService = new AccountService();
+        int perCreator = 5_000;
+        runConcurrently(CREATORS, () -> {
+            List<Account> accounts = new ArrayList<>(100);
+            for (int i = 0; i < perCreator; i++) {
+                accounts.add(anAccount());
+                if (accounts.size() == 100) {
+                    accountService.saveAll(accounts);
+                    accounts.clear();
+                }
+            }
+        });
+        Assertions.assertEquals(CREATORS * perCreator, accountService.findAll().size());
+    }
+
+    private double idsPerSecond(AccountIdGenerator idGenerator) throws Exception {
+        int perCreator = 200_000;
+        long start = System.nanoTime();
+        runConcurrently(CREATORS, () -> {
+            for (int i = 0; i < perCreator; i++) {
+                if (idGenerator.nextId() == null) {
+                    throw new IllegalStateException("No id generated");
+                }
+            }
+        });
+        return CREATORS * perCreator * 1e9 / (System.nanoTime() - start);
+    }
+}